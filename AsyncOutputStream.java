@@ -0,0 +1,141 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/*
+ * An OutputStream that hands full buffers to a background thread which writes
+ * them to disk, so that page layout and compression (which iText does on the
+ * calling thread) do not wait on file writes. At most QUEUE_DEPTH buffers are
+ * queued at once; past that the caller blocks until the disk catches up.
+ */
+class AsyncOutputStream extends OutputStream {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int QUEUE_DEPTH = 16;
+    private static final byte[] END = new byte[0]; // tells the writer to stop
+
+    private final ArrayBlockingQueue<byte[]> queue;
+    private final Thread writer;
+    private byte[] buffer;
+    private int count; // bytes used in buffer
+    private volatile IOException failure; // first error from the writer thread
+    private boolean closed;
+
+    public AsyncOutputStream(String file_name) throws IOException {
+        OutputStream out = new FileOutputStream(file_name);
+        this.queue = new ArrayBlockingQueue<byte[]>(QUEUE_DEPTH);
+        this.buffer = new byte[BUFFER_SIZE];
+        this.writer = new Thread(() -> drain(out), "writer " + file_name);
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    // keeps taking buffers after a failure so the caller never blocks on a
+    // full queue; the failure is reported on its next write or on close
+    private void drain(OutputStream out) {
+        try {
+            for (byte[] b = queue.take(); b != END; b = queue.take()) {
+                if (failure != null)
+                    continue;
+                try {
+                    out.write(b);
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        } catch (InterruptedException e) {
+            failure = new IOException("writer interrupted", e);
+        }
+        try {
+            out.close();
+        } catch (IOException e) {
+            if (failure == null)
+                failure = e;
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed)
+            throw new IOException("stream closed");
+        if (failure != null)
+            throw failure;
+    }
+
+    private void hand(byte[] b) throws IOException {
+        try {
+            queue.put(b);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while queueing output", e);
+        }
+    }
+
+    // queue whatever is buffered and start a new buffer
+    private void handOff() throws IOException {
+        if (count == 0)
+            return;
+        if (count < buffer.length) {
+            hand(Arrays.copyOf(buffer, count));
+        } else {
+            hand(buffer);
+            buffer = new byte[BUFFER_SIZE];
+        }
+        count = 0;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        checkOpen();
+        if (count == buffer.length)
+            handOff();
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkOpen();
+        while (len > 0) {
+            if (count == buffer.length)
+                handOff();
+            int n = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        checkOpen();
+        handOff();
+    }
+
+    /*
+     * Wait for every queued buffer to reach the disk. If the buffers cannot be
+     * queued, e.g. because rendering was cancelled, the writer is stopped
+     * instead so that it still closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        try {
+            handOff();
+            hand(END);
+        } catch (IOException e) {
+            writer.interrupt();
+            throw e;
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while closing output", e);
+        }
+        if (failure != null)
+            throw failure;
+    }
+}
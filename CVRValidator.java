@@ -0,0 +1,163 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/*
+ * Structural checks on a CVR, run before any PDF work starts so that every
+ * problem in an export is reported at once (with its line number) instead of
+ * surfacing as an exception deep inside rendering.
+ *
+ * The header lines are checked first; if they are usable, the ballot lines are
+ * checked in parallel chunks for column count and numeric vote cells, and
+ * then all at once for duplicate ImprintedIds, through an ImprintedIDIndex.
+ */
+class CVRValidator {
+    private static final int HEADER_LINES = 4; // title, contests, candidates, parties
+    private static final int CHUNK_SIZE = 4096; // ballot lines checked per task
+
+    private final int cols; // number of total columns
+    private final int fc; // index of first contest
+    private final int imprintedID_i; // index of "ImprintedId" column
+    private final String[] ids; // ImprintedId of every ballot line, or null if missing
+
+    private CVRValidator(String[] column_titles, int fc, int imprintedID_i, int ballots) {
+        this.cols = column_titles.length;
+        this.fc = fc;
+        this.imprintedID_i = imprintedID_i;
+        this.ids = new String[ballots];
+    }
+
+    // line number in the CVR file of the ith ballot line
+    private static int lineOfBallot(int i) {
+        return i + HEADER_LINES + 1;
+    }
+
+    /*
+     * Return a description of every structural problem found in the CVR, in
+     * line order. An empty list means the CVR is safe to render. Repeated
+     * ImprintedIds are only a problem if !allow_duplicate_ids.
+     */
+    public static ArrayList<String> validate(String title_line, String[] contest_names, String[] candidates,
+            String[] parties, ArrayList<String> ballot_lines, boolean allow_duplicate_ids) {
+        ArrayList<String> problems = new ArrayList<String>();
+        if (title_line.split(",").length == 0 || title_line.split(",")[0].equals(""))
+            problems.add("line 1: CVR has no title");
+        int fc = indexOf(parties, "BallotType") + 1;
+        int imprintedID_i = indexOf(parties, "ImprintedId");
+        if (fc == 0)
+            problems.add("line 4: CVR does not have a 'BallotType' column");
+        if (imprintedID_i == -1)
+            problems.add("line 4: CVR does not have a 'ImprintedId' column");
+        if (fc == 0 || imprintedID_i == -1)
+            return problems; // the ballot lines cannot be interpreted
+        if (contest_names.length <= fc) {
+            problems.add("line 2: CVR has no contests");
+            return problems;
+        }
+
+        String[] column_titles = VotingSheets.prepareColumnTitles(contest_names, parties);
+        checkContestHeaders(column_titles, fc, problems);
+        if (candidates.length < column_titles.length)
+            problems.add("line 3: expected " + column_titles.length + " candidate columns, found "
+                    + candidates.length);
+
+        CVRValidator v = new CVRValidator(column_titles, fc, imprintedID_i, ballot_lines.size());
+        problems.addAll(v.checkBallots(ballot_lines, allow_duplicate_ids));
+        return problems;
+    }
+
+    private static int indexOf(String[] row, String title) {
+        for (int i = 0; i < row.length; i++) {
+            if (row[i].equals(title))
+                return i;
+        }
+        return -1;
+    }
+
+    // every contest must announce how many votes it allows, as in
+    // "Secretary of State (Vote For=1)"
+    private static void checkContestHeaders(String[] column_titles, int fc, ArrayList<String> problems) {
+        for (int i = fc; i < column_titles.length; i++) {
+            if (i > fc && column_titles[i].equals(column_titles[i - 1]))
+                continue;
+            String[] tmp = column_titles[i].split(" \\(Vote For=");
+            if (tmp.length < 2 || !tmp[1].endsWith(")")) {
+                problems.add("line 2, column " + (i + 1) + ": contest '" + column_titles[i]
+                        + "' is missing '(Vote For=N)'");
+                continue;
+            }
+            String votes = tmp[1].substring(0, tmp[1].length() - 1);
+            if (!isCount(votes))
+                problems.add("line 2, column " + (i + 1) + ": contest '" + tmp[0] + "' allows '" + votes
+                        + "' votes");
+        }
+    }
+
+    private static boolean isCount(String s) {
+        if (s.length() == 0 || s.length() > 9)
+            return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9')
+                return false;
+        }
+        return true;
+    }
+
+    private ArrayList<String> checkBallots(ArrayList<String> ballot_lines, boolean allow_duplicate_ids) {
+        int chunks = (ballot_lines.size() + CHUNK_SIZE - 1) / CHUNK_SIZE; // Round up
+        List<ArrayList<String>> chunk_problems = IntStream.range(0, chunks).parallel()
+                .mapToObj(c -> checkChunk(ballot_lines, c * CHUNK_SIZE,
+                        Math.min(ballot_lines.size(), (c + 1) * CHUNK_SIZE)))
+                .collect(Collectors.toList());
+        ArrayList<String> problems = new ArrayList<String>();
+        for (ArrayList<String> p : chunk_problems) {
+            problems.addAll(p);
+        }
+        if (!allow_duplicate_ids)
+            problems.addAll(duplicateIDs());
+        return problems;
+    }
+
+    private ArrayList<String> checkChunk(ArrayList<String> ballot_lines, int start, int end) {
+        ArrayList<String> problems = new ArrayList<String>();
+        for (int i = start; i < end; i++) {
+            int line = lineOfBallot(i);
+            String[] row = VotingSheets.splitAtComma(ballot_lines.get(i));
+            if (row.length != cols) {
+                problems.add("line " + line + ": expected " + cols + " columns, found " + row.length);
+            }
+            if (row.length <= imprintedID_i || row[imprintedID_i].equals("")) {
+                problems.add("line " + line + ": missing ImprintedId");
+            } else {
+                ids[i] = row[imprintedID_i]; // each chunk writes only its own lines
+            }
+            for (int j = fc; j < cols && j < row.length; j++) {
+                if (!row[j].equals("") && !isCount(row[j])) {
+                    problems.add("line " + line + ", column " + (j + 1) + ": vote '" + row[j]
+                            + "' is not a number");
+                }
+            }
+        }
+        return problems;
+    }
+
+    private ArrayList<String> duplicateIDs() {
+        ArrayList<String> problems = new ArrayList<String>();
+        ImprintedIDIndex index = new ImprintedIDIndex("the CVR", ids);
+        ArrayList<String> dups = index.duplicates();
+        ArrayList<int[]> rows = index.duplicateRows();
+        List<Integer> order = IntStream.range(0, dups.size()).boxed().collect(Collectors.toList());
+        order.sort((a, b) -> rows.get(a)[0] - rows.get(b)[0]);
+        for (int d : order) {
+            int[] r = rows.get(d);
+            StringBuilder lines = new StringBuilder();
+            for (int j = 1; j < r.length; j++) {
+                lines.append(j > 1 ? ", " : "").append(lineOfBallot(r[j]));
+            }
+            problems.add("line " + lineOfBallot(r[0]) + ": ImprintedId " + dups.get(d) + " is repeated on lines ["
+                    + lines + "]");
+        }
+        return problems;
+    }
+}
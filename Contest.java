@@ -39,12 +39,12 @@ class Contest {
         return sheets.ballots();
     }
 
-    public ArrayList<Integer> buildPartialSums(int start_line) {
+    public ArrayList<Integer> buildPartialSums(int start_line, int ballots_per_page) {
         ArrayList<Integer> partial_sums = new ArrayList<Integer>(cols);
         for (int j = 0; j < cols; j++) {
             partial_sums.add(0);
         }
-        for (int i = start_line; i < sheets.BALLOTS_PER_PAGE() + start_line && i < ballots(); i++) {
+        for (int i = start_line; i < ballots_per_page + start_line && i < ballots(); i++) {
             for (int j = 0; j < cols; j++) {
                 String vote = getVote(j, i);
                 if (vote.equals("-"))
@@ -55,10 +55,6 @@ class Contest {
         return partial_sums;
     }
 
-    public int BALLOTS_PER_PAGE() {
-        return sheets.BALLOTS_PER_PAGE();
-    }
-
     // get the ith candidate for this race
     public String candidate(int i) {
         if (i < 0 || i >= cols)
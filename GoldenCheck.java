@@ -0,0 +1,506 @@
+import com.itextpdf.kernel.geom.Rectangle;
+import com.itextpdf.kernel.geom.Vector;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfPage;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.canvas.parser.EventType;
+import com.itextpdf.kernel.pdf.canvas.parser.PdfTextExtractor;
+import com.itextpdf.kernel.pdf.canvas.parser.data.IEventData;
+import com.itextpdf.kernel.pdf.canvas.parser.data.TextRenderInfo;
+import com.itextpdf.kernel.pdf.canvas.parser.listener.LocationTextExtractionStrategy;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*
+ * Regression check for the numbers printed on the sheets, so that Page and
+ * SingleFile can be reworked for speed without silently changing the sums.
+ *
+ * The text of every rendered PDF is extracted and the partial, previous and
+ * running sums of every page are collected into a report, one line per row:
+ *
+ *   1.pdf page 2 running 100: 40 52 3 5
+ *
+ * The report is checked three ways: each page must add up (running =
+ * previous + partial, and previous = the running sums of the page before),
+ * the last running sums of each file must equal the column totals of the CVR,
+ * summed straight from its lines, and the whole report must match a golden
+ * copy recorded from a known good version. Besides the sums, every file must
+ * have as many pages as its page numbers say, each with one set of sums, and
+ * must list every ballot of the CVR, in ImprintedId order, with the votes the
+ * CVR has for them, and no text may be drawn outside the page, where it would
+ * be cut off (text extraction alone still finds it). A sheet that cannot be
+ * read at all is a failure too.
+ */
+class GoldenCheck {
+    private static final String USAGE = "USAGE: java GoldenCheck CVR_name sheets_dir [golden_file [--update]]\n"
+            + "       java GoldenCheck --generate N CVR_name new_CVR_name";
+    private static final int HEADER_LINES = 4; // title, contests, candidates, parties
+    private static final String[] SUM_ROWS = { "partial", "previous", "running" };
+    private static final Pattern PAGE_NUMBER = Pattern.compile("\\b(\\d+) of (\\d+)\\b"); // "2 of 4"
+    private static final int MAX_REPORTED = 20; // differences printed per file
+    private static final float EDGE_TOLERANCE = 0.5f; // points a glyph box may overhang the page
+
+    /*
+     * The text of a page as PdfTextExtractor gives it, noting on the way the
+     * glyphs drawn even partly outside the page's media box.
+     */
+    private static class PageText extends LocationTextExtractionStrategy {
+        private final Rectangle media_box;
+        int outside = 0; // glyphs not wholly on the page
+        String first_outside; // the first of them, with where it is
+
+        PageText(PdfPage page) {
+            this.media_box = page.getMediaBox();
+        }
+
+        @Override
+        public void eventOccurred(IEventData data, EventType type) {
+            if (type == EventType.RENDER_TEXT) {
+                for (TextRenderInfo glyph : ((TextRenderInfo) data).getCharacterRenderInfos()) {
+                    if (glyph.getText().trim().isEmpty() || onPage(glyph))
+                        continue;
+                    if (outside++ == 0) {
+                        Vector at = glyph.getBaseline().getStartPoint();
+                        first_outside = "'" + glyph.getText() + "' at (" + at.get(Vector.I1) + ", "
+                                + at.get(Vector.I2) + ")";
+                    }
+                }
+            }
+            super.eventOccurred(data, type);
+        }
+
+        private boolean onPage(TextRenderInfo glyph) {
+            Vector low = glyph.getDescentLine().getStartPoint();
+            Vector high = glyph.getAscentLine().getEndPoint();
+            return within(low.get(Vector.I1), media_box.getLeft(), media_box.getRight())
+                    && within(high.get(Vector.I1), media_box.getLeft(), media_box.getRight())
+                    && within(low.get(Vector.I2), media_box.getBottom(), media_box.getTop())
+                    && within(high.get(Vector.I2), media_box.getBottom(), media_box.getTop());
+        }
+
+        private static boolean within(float x, float from, float to) {
+            return x >= from - EDGE_TOLERANCE && x <= to + EDGE_TOLERANCE;
+        }
+    }
+
+    /*
+     * What the sheets are checked against, read straight from the CVR lines
+     * rather than through VotingSheets.
+     */
+    private static class Cvr {
+        final long[] totals; // column totals
+        final ArrayList<Integer> contest_starts; // index of the first column of every contest
+        final ArrayList<String[]> ballots; // in ImprintedId order
+        final HashSet<String> ids;
+        final int imprintedID_i;
+
+        Cvr(List<String> lines) {
+            contest_starts = new ArrayList<Integer>();
+            totals = cvrTotals(lines, contest_starts);
+            String[] titles = VotingSheets.splitAtComma(lines.get(3));
+            int i = 0;
+            while (!titles[i].equals("ImprintedId"))
+                i++;
+            imprintedID_i = i;
+            ballots = new ArrayList<String[]>();
+            ids = new HashSet<String>();
+            for (int l = HEADER_LINES; l < lines.size(); l++) {
+                String[] row = VotingSheets.splitAtComma(lines.get(l));
+                ballots.add(row);
+                ids.add(row[imprintedID_i]);
+            }
+            // in the order the sheets list them, quirks included
+            ballots.sort((a, b) -> VotingSheets.compareImprintedIDs(a[imprintedID_i], b[imprintedID_i]));
+        }
+
+        // the ith ballot as its row on a sheet whose votes start at column col
+        String ballotRow(int i, int col, int cols) {
+            String[] row = ballots.get(i);
+            StringBuilder sb = new StringBuilder(row[imprintedID_i]);
+            for (int j = col; j < col + cols; j++) {
+                sb.append(' ').append(j >= row.length || row[j].equals("") ? "-" : row[j]);
+            }
+            return sb.toString();
+        }
+    }
+
+
+    /*
+     * Sums rows read from the text of one page, e.g. "50 Partial 3 20 5".
+     */
+    private static ArrayList<String> sumRows(String file, int page, String text) {
+        ArrayList<String> rows = new ArrayList<String>();
+        for (String line : text.split("\n")) {
+            String[] tokens = line.trim().split("\\s+");
+            if (tokens.length < 3 || !isNumber(tokens[0]))
+                continue;
+            String name = tokens[1].toLowerCase();
+            if (!name.equals("partial") && !name.equals("previous") && !name.equals("running"))
+                continue;
+            StringBuilder row = new StringBuilder();
+            row.append(file).append(" page ").append(page).append(' ').append(name).append(' ').append(tokens[0])
+                    .append(':');
+            boolean numbers = true;
+            for (int i = 2; i < tokens.length; i++) {
+                numbers &= isNumber(tokens[i]);
+                row.append(' ').append(tokens[i]);
+            }
+            if (numbers)
+                rows.add(row.toString());
+        }
+        return rows;
+    }
+
+    private static boolean isNumber(String s) {
+        if (s.length() == 0)
+            return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) < '0' || s.charAt(i) > '9')
+                return false;
+        }
+        return true;
+    }
+
+    /*
+     * Ballot rows read from the text of one page, e.g. "1 2-1-7 0 1 -", as the
+     * ImprintedId followed by the votes.
+     */
+    private static ArrayList<String> ballotRows(String text, HashSet<String> ids) {
+        ArrayList<String> rows = new ArrayList<String>();
+        for (String line : text.split("\n")) {
+            String[] tokens = line.trim().split("\\s+");
+            if (tokens.length >= 2 && tokens[0].equals("1") && ids.contains(tokens[1]))
+                rows.add(String.join(" ", Arrays.copyOfRange(tokens, 1, tokens.length)));
+        }
+        return rows;
+    }
+
+    /*
+     * Add the sums rows of every sheet in dir to report, in file number order,
+     * and to problems every way a sheet cannot be read, has the wrong pages or
+     * does not list the ballots of the CVR.
+     */
+    private static void readSheets(String dir, Cvr cvr, ArrayList<String> report, ArrayList<String> problems) {
+        for (int n = 1, missing = 0; missing < 1000; n++) {
+            File f = new File(dir, n + ".pdf");
+            if (!f.exists()) {
+                missing++; // files are numbered by their first contest
+                continue;
+            }
+            missing = 0;
+            ArrayList<String> sums = new ArrayList<String>();
+            ArrayList<ArrayList<String>> ballots = new ArrayList<ArrayList<String>>(); // per page
+            // iText reports a truncated or corrupt file with unchecked exceptions
+            try (PdfDocument pdfdoc = new PdfDocument(new PdfReader(f.getPath()))) {
+                int pages = pdfdoc.getNumberOfPages();
+                for (int page = 1; page <= pages; page++) {
+                    PageText page_text = new PageText(pdfdoc.getPage(page));
+                    String text = PdfTextExtractor.getTextFromPage(pdfdoc.getPage(page), page_text);
+                    if (page_text.outside > 0)
+                        problems.add(f.getName() + " page " + page + ": " + page_text.outside
+                                + " characters drawn off the page, the first " + page_text.first_outside);
+                    ArrayList<String> page_sums = sumRows(f.getName(), page, text);
+                    if (page_sums.size() != SUM_ROWS.length)
+                        problems.add(f.getName() + " page " + page + ": " + page_sums.size()
+                                + " sums rows instead of " + SUM_ROWS.length);
+                    checkPageNumbers(f.getName(), page, pages, text, problems);
+                    sums.addAll(page_sums);
+                    ballots.add(ballotRows(text, cvr.ids));
+                }
+            } catch (IOException | RuntimeException e) {
+                problems.add(f.getName() + ": cannot be read (" + e + ")");
+                continue;
+            }
+            report.addAll(sums);
+            checkBallots(f.getName(), sums, ballots, cvr, problems);
+        }
+    }
+
+    // page must be numbered "page of pages", so no page spilled onto another
+    private static void checkPageNumbers(String file, int page, int pages, String text,
+            ArrayList<String> problems) {
+        Matcher m = PAGE_NUMBER.matcher(text);
+        boolean found = false;
+        while (m.find()) {
+            found = true;
+            if (Integer.parseInt(m.group(1)) != page || Integer.parseInt(m.group(2)) != pages) {
+                problems.add(file + " page " + page + " of " + pages + " is numbered " + m.group());
+                return;
+            }
+        }
+        if (!found)
+            problems.add(file + " page " + page + " of " + pages + " has no page number");
+    }
+
+    /*
+     * The ballot rows of a sheet must be those of the CVR in ImprintedId order,
+     * with the votes of the sheet's columns, and each page must list as many
+     * ballots as its partial sums count.
+     */
+    private static void checkBallots(String file, ArrayList<String> sums, ArrayList<ArrayList<String>> ballots,
+            Cvr cvr, ArrayList<String> problems) {
+        int first_contest = Integer.parseInt(file.substring(0, file.indexOf('.'))) - 1;
+        if (sums.isEmpty() || first_contest >= cvr.contest_starts.size())
+            return; // reported with the sums
+        int col = cvr.contest_starts.get(first_contest);
+        int cols = values(sums.get(0)).length;
+        int ballot = 0, differences = 0;
+        for (int page = 0; page < ballots.size(); page++) {
+            for (String row : ballots.get(page)) {
+                String expected = ballot < cvr.ballots.size() ? cvr.ballotRow(ballot, col, cols) : "(nothing)";
+                if (!row.equals(expected) && differences++ < MAX_REPORTED)
+                    System.err.println(file + " page " + (page + 1) + ": expected " + expected + "\n     got "
+                            + row);
+                ballot++;
+            }
+        }
+        if (differences > 0)
+            problems.add(file + ": " + differences + " ballot rows differ from the CVR");
+        if (ballot != cvr.ballots.size())
+            problems.add(file + ": lists " + ballot + " ballots, the CVR has " + cvr.ballots.size());
+        for (String row : sums) {
+            String[] tokens = row.split(" "); // "1.pdf page 2 partial 50: ..."
+            if (!tokens[3].equals("partial"))
+                continue;
+            int listed = ballots.get(Integer.parseInt(tokens[2]) - 1).size();
+            if (!tokens[4].equals(listed + ":"))
+                problems.add(file + " page " + tokens[2] + ": partial count " + tokens[4] + " but " + listed
+                        + " ballots listed");
+        }
+    }
+
+    private static long[] values(String row) {
+        String[] tokens = row.substring(row.indexOf(':') + 1).trim().split(" ");
+        long[] values = new long[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            values[i] = Long.parseLong(tokens[i]);
+        }
+        return values;
+    }
+
+    private static String fileOf(String row) {
+        return row.substring(0, row.indexOf(' '));
+    }
+
+    /*
+     * Column totals of the CVR, summed straight from its lines, with the index
+     * of the first column of every contest in contest_starts.
+     */
+    private static long[] cvrTotals(List<String> lines, ArrayList<Integer> contest_starts) {
+        String[] contests = VotingSheets.splitAtComma(lines.get(1));
+        String[] titles = VotingSheets.splitAtComma(lines.get(3));
+        int fc = 0;
+        while (!titles[fc].equals("BallotType"))
+            fc++;
+        fc++;
+        long[] totals = new long[contests.length];
+        for (int j = fc; j < contests.length; j++) {
+            if (j == fc || !contests[j].equals(contests[j - 1]))
+                contest_starts.add(j);
+        }
+        for (int i = HEADER_LINES; i < lines.size(); i++) {
+            String[] row = VotingSheets.splitAtComma(lines.get(i));
+            for (int j = fc; j < row.length && j < totals.length; j++) {
+                if (!row[j].equals(""))
+                    totals[j] += Long.parseLong(row[j]);
+            }
+        }
+        return totals;
+    }
+
+    // every way the report disagrees with itself or with the CVR
+    private static ArrayList<String> checkSums(ArrayList<String> report, Cvr cvr) {
+        ArrayList<String> problems = new ArrayList<String>();
+        long[] totals = cvr.totals;
+        ArrayList<Integer> contest_starts = cvr.contest_starts;
+        long[] last_running = null;
+        String last_file = null;
+        for (int i = 0; i < report.size(); i += SUM_ROWS.length) {
+            if (i + 2 >= report.size() || !report.get(i).contains(" partial ")
+                    || !report.get(i + 1).contains(" previous ") || !report.get(i + 2).contains(" running ")) {
+                problems.add("sums rows out of order at: " + report.get(i));
+                return problems;
+            }
+            String file = fileOf(report.get(i));
+            if (last_file != null && !file.equals(last_file))
+                problems.addAll(checkTotals(last_file, last_running, totals, contest_starts));
+            long[] partial = values(report.get(i));
+            long[] previous = values(report.get(i + 1));
+            long[] running = values(report.get(i + 2));
+            for (int j = 0; j < running.length; j++) {
+                long expected_previous = file.equals(last_file) ? last_running[j] : 0;
+                if (previous[j] != expected_previous || running[j] != previous[j] + partial[j]) {
+                    problems.add("sums do not add up at: " + report.get(i + 2));
+                    break;
+                }
+            }
+            last_file = file;
+            last_running = running;
+        }
+        if (last_file != null)
+            problems.addAll(checkTotals(last_file, last_running, totals, contest_starts));
+        return problems;
+    }
+
+    private static ArrayList<String> checkTotals(String file, long[] running, long[] totals,
+            ArrayList<Integer> contest_starts) {
+        ArrayList<String> problems = new ArrayList<String>();
+        int first_contest = Integer.parseInt(file.substring(0, file.indexOf('.'))) - 1;
+        if (first_contest >= contest_starts.size()) {
+            problems.add(file + ": the CVR has no contest " + (first_contest + 1));
+            return problems;
+        }
+        int col = contest_starts.get(first_contest);
+        for (int j = 0; j < running.length; j++) {
+            if (col + j >= totals.length || running[j] != totals[col + j]) {
+                problems.add(file + ": final running sums do not match the CVR totals");
+                break;
+            }
+        }
+        return problems;
+    }
+
+    private static int compare(ArrayList<String> report, String golden_file) throws IOException {
+        List<String> golden = Files.readAllLines(Paths.get(golden_file), StandardCharsets.UTF_8);
+        int differences = 0;
+        for (int i = 0; i < Math.max(golden.size(), report.size()); i++) {
+            String expected = i < golden.size() ? golden.get(i) : "(nothing)";
+            String actual = i < report.size() ? report.get(i) : "(nothing)";
+            if (!expected.equals(actual)) {
+                if (differences++ < 20)
+                    System.err.println("expected " + expected + "\n     got " + actual);
+            }
+        }
+        return differences;
+    }
+
+    private static void write(ArrayList<String> lines, String file_name) throws IOException {
+        PrintWriter out = new PrintWriter(file_name, "UTF-8");
+        for (String line : lines) {
+            out.println(line);
+        }
+        out.close();
+    }
+
+    /*
+     * Write a CVR with the header of the given one and n made-up ballots, from
+     * a fixed seed so that the same n always gives the same CVR.
+     */
+    private static void generate(int n, String cvr, String new_cvr) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(cvr), StandardCharsets.UTF_8);
+        String[] title = VotingSheets.splitAtComma(lines.get(0));
+        title[0] = "Generated " + n + " ballots";
+        String[] contests = VotingSheets.splitAtComma(lines.get(1));
+        String[] titles = VotingSheets.splitAtComma(lines.get(3));
+        PrintWriter out = new PrintWriter(new_cvr, "UTF-8");
+        out.println(String.join(",", title));
+        for (int i = 1; i < HEADER_LINES; i++) {
+            out.println(lines.get(i));
+        }
+        Random random = new Random(n);
+        int fc = 0;
+        while (!titles[fc].equals("BallotType"))
+            fc++;
+        fc++;
+        String[] row = new String[contests.length];
+        for (int b = 0; b < n; b++) {
+            int tabulator = b / 100000 + 1, batch = b / 100 % 1000 + 1, record = b % 100 + 1;
+            for (int j = 0; j < fc; j++) {
+                switch (titles[j]) {
+                case "CvrNumber":
+                    row[j] = Integer.toString(b + 1);
+                    break;
+                case "TabulatorNum":
+                    row[j] = Integer.toString(tabulator);
+                    break;
+                case "BatchId":
+                    row[j] = Integer.toString(batch);
+                    break;
+                case "RecordId":
+                    row[j] = Integer.toString(record);
+                    break;
+                case "ImprintedId":
+                    row[j] = tabulator + "-" + batch + "-" + record;
+                    break;
+                case "BallotType":
+                    row[j] = "Ballot 1 - Type 1";
+                    break;
+                default:
+                    row[j] = "";
+                }
+            }
+            for (int start = fc, end; start < contests.length; start = end) {
+                for (end = start + 1; end < contests.length && contests[end].equals(contests[start]); end++)
+                    ;
+                generateContest(random, row, start, end);
+            }
+            out.println(String.join(",", row));
+        }
+        out.close();
+    }
+
+    // mostly one vote per contest, with some blank, under and over votes
+    private static void generateContest(Random random, String[] row, int start, int end) {
+        double r = random.nextDouble();
+        int pick = start + random.nextInt(end - start);
+        for (int j = start; j < end; j++) {
+            if (r < 0.1)
+                row[j] = ""; // contest not on this ballot
+            else if (r < 0.15)
+                row[j] = "0";
+            else if (r < 0.17)
+                row[j] = "1";
+            else
+                row[j] = j == pick ? "1" : "0";
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 4 && args[0].equals("--generate")) {
+            generate(Integer.parseInt(args[1]), args[2], args[3]);
+            return;
+        }
+        if (args.length < 2 || args.length > 4 || (args.length == 4 && !args[3].equals("--update"))) {
+            System.err.println(USAGE);
+            return;
+        }
+        Cvr cvr = new Cvr(Files.readAllLines(Paths.get(args[0]), StandardCharsets.UTF_8));
+        ArrayList<String> report = new ArrayList<String>();
+        ArrayList<String> problems = new ArrayList<String>();
+        readSheets(args[1], cvr, report, problems);
+        problems.addAll(checkSums(report, cvr));
+        if (args.length == 4) {
+            write(report, args[2]);
+            System.out.println("recorded " + report.size() + " sums rows in " + args[2]);
+        } else if (args.length == 3 && new File(args[2]).exists()) {
+            int differences = compare(report, args[2]);
+            if (differences > 0)
+                problems.add(differences + " sums rows differ from " + args[2]);
+        } else {
+            System.out.println("no golden copy; only the sums were checked");
+        }
+        if (report.isEmpty())
+            problems.add("no sums found in " + args[1]);
+        for (String problem : problems) {
+            System.err.println(problem);
+        }
+        if (!problems.isEmpty()) {
+            System.err.println("FAILED: " + problems.size() + " problem(s)");
+            System.exit(1);
+        }
+        System.out.println("OK: " + report.size() + " sums rows and the ballots of " + cvr.ballots.size()
+                + " CVR lines checked");
+    }
+}
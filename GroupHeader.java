@@ -0,0 +1,230 @@
+import com.itextpdf.kernel.font.PdfFont;
+import com.itextpdf.kernel.geom.Rectangle;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.canvas.PdfCanvas;
+import com.itextpdf.kernel.pdf.xobject.PdfFormXObject;
+import com.itextpdf.layout.Canvas;
+import com.itextpdf.layout.Document;
+import com.itextpdf.layout.element.BlockElement;
+import com.itextpdf.layout.element.Cell;
+import com.itextpdf.layout.element.Paragraph;
+import com.itextpdf.layout.element.Table;
+import com.itextpdf.layout.layout.LayoutArea;
+import com.itextpdf.layout.layout.LayoutContext;
+import com.itextpdf.layout.property.TextAlignment;
+
+/*
+ * The parts of a sheet that are the same on every page of a contest group:
+ * the CVR title and the contest, party and candidate rows of the votes table.
+ * Each is laid out once per document into a Form XObject that every page
+ * stamps.
+ *
+ * Since the header is drawn separately from the votes below it, the votes
+ * table uses the fixed column widths measured here instead of auto layout,
+ * and is placed clear of the page numbers in the bottom left corner.
+ */
+class GroupHeader {
+    // room for a cell's padding (2 on each side) and borders (up to 1 on each
+    // side, half of a 2 point contest separator) on top of its text
+    private static final float CELL_SLACK = 7;
+    // thickest border of the header rows; their Form XObject is this much
+    // larger on every side so that the outer borders are not clipped
+    public static final float BORDER_WIDTH = 2;
+    // extra height of the first sums row, whose 2 point top border replaces
+    // the 0.5 point border between rows
+    private static final float SUMS_BORDER = 1.5f;
+    private static final float MAX_HEIGHT = 10000; // taller than any header
+
+    private final PageGeometry geometry;
+    private final float[] column_widths;
+    private final float page_number_width; // widest "N of N" box of the group
+    private final PdfFormXObject title;
+    private final PdfFormXObject titles_rows;
+
+    public GroupHeader(Contest[] cs, VotingSheets vs, Document doc, PdfFont font, PageGeometry geometry) {
+        this.geometry = geometry;
+        this.column_widths = measureColumns(cs, vs, font, geometry);
+        this.page_number_width = pageNumberWidth(vs, font, geometry.rows());
+        this.title = renderTitle(cs[0].title(), doc, font);
+        this.titles_rows = render(titlesTable(cs, column_widths, geometry.fontSize()), tableWidth(), BORDER_WIDTH,
+                doc);
+    }
+
+    public PageGeometry geometry() {
+        return geometry;
+    }
+
+    public float[] columnWidths() {
+        return column_widths;
+    }
+
+    public float tableWidth() {
+        return sum(column_widths);
+    }
+
+    // left edge of the votes table: centred, unless that puts it under the page numbers
+    public float tableLeft() {
+        float page_width = geometry.pageSize().getWidth();
+        return Math.max((page_width - tableWidth()) / 2, page_number_width);
+    }
+
+    // the CVR title
+    public PdfFormXObject title() {
+        return title;
+    }
+
+    // the contest, party and candidate rows of the votes table, with a margin
+    // of BORDER_WIDTH all round
+    public PdfFormXObject titlesRows() {
+        return titles_rows;
+    }
+
+    private static float sum(float[] widths) {
+        float width = 0;
+        for (float w : widths) {
+            width += w;
+        }
+        return width;
+    }
+
+    // width of the page-number boxes of a sheet listing rows ballots per page
+    private static float pageNumberWidth(VotingSheets vs, PdfFont font, int rows) {
+        int pages = Math.max(1, (vs.ballots() + rows - 1) / rows); // Round up
+        String digits = "0".repeat(Integer.toString(pages).length());
+        return textWidth(font, PageGeometry.TITLE_FONT_SIZE, digits + " of " + digits);
+    }
+
+    /*
+     * True if a table of the given width fits between the page numbers and
+     * the right margin of the page.
+     */
+    private static boolean fitsAcross(float table_width, float page_number_width, PageGeometry geometry) {
+        float page_width = geometry.pageSize().getWidth();
+        float margin = (page_width - geometry.maxTableWidth()) / 2;
+        return page_number_width + table_width <= page_width - margin;
+    }
+
+    private static float textWidth(PdfFont font, float fontSize, String s) {
+        float width = 0;
+        for (String line : s.split("\n")) {
+            width = Math.max(width, font.getWidth(line, fontSize));
+        }
+        return width + CELL_SLACK;
+    }
+
+    /*
+     * Widths of the "#" and "Ballot ID" columns followed by one width per
+     * candidate, each wide enough for everything the column holds on any page.
+     */
+    private static float[] measureColumns(Contest[] cs, VotingSheets vs, PdfFont font, PageGeometry geometry) {
+        float fontSize = geometry.fontSize();
+        int cols = 2;
+        for (Contest c : cs) {
+            cols += c.cols();
+        }
+        float[] widths = new float[cols];
+        // counts stay below ballots + rows, and all digits are as wide
+        int digits = Integer.toString(vs.ballots() + geometry.rows()).length();
+        float number = textWidth(font, fontSize, "0".repeat(digits));
+        widths[0] = Math.max(number, textWidth(font, fontSize, "#"));
+        widths[1] = Math.max(textWidth(font, fontSize, "Ballot ID"), textWidth(font, fontSize, "Previous"));
+        // only the longest ImprintedIds can be the widest
+        int longest = 0;
+        for (int i = 0; i < vs.ballots(); i++) {
+            longest = Math.max(longest, vs.getImprintedID(i).length());
+        }
+        for (int i = 0; i < vs.ballots(); i++) {
+            if (vs.getImprintedID(i).length() == longest)
+                widths[1] = Math.max(widths[1], textWidth(font, fontSize, vs.getImprintedID(i)));
+        }
+        for (int c = 0, col = 2; c < cs.length; col += cs[c++].cols()) {
+            float span = 0;
+            for (int i = 0; i < cs[c].cols(); i++) {
+                float w = Math.max(number, textWidth(font, fontSize, Page.splitIntoLines(cs[c].candidate(i))));
+                widths[col + i] = Math.max(w, textWidth(font, fontSize, cs[c].party(i)));
+                span += widths[col + i];
+            }
+            // widen the contest's columns evenly if its name does not fit above them
+            float extra = textWidth(font, fontSize, cs[c].contest_name()) - span;
+            for (int i = 0; extra > 0 && i < cs[c].cols(); i++) {
+                widths[col + i] += extra / cs[c].cols();
+            }
+        }
+        float contests = textWidth(font, fontSize, "Contests") - widths[0] - widths[1];
+        if (contests > 0)
+            widths[1] += contests;
+        return widths;
+    }
+
+    private static Table titlesTable(Contest[] cs, float[] widths, float fontSize) {
+        Table table = new Table(widths).setFixedLayout();
+        table.setWidth(sum(widths));
+        table.setFontSize(fontSize);
+        table.setTextAlignment(TextAlignment.CENTER);
+        Page.addTitlesToTable(cs, table);
+        return table;
+    }
+
+    private PdfFormXObject renderTitle(String s, Document doc, PdfFont font) {
+        float fontSize = PageGeometry.TITLE_FONT_SIZE;
+        float page_width = geometry.pageSize().getWidth();
+        while (s.length() * fontSize >= page_width * 2) {
+            fontSize--;
+        }
+        Paragraph p = new Paragraph(s);
+        p.setFontSize(fontSize);
+        p.setTextAlignment(TextAlignment.CENTER);
+        return render(p, font.getWidth(s, fontSize) + CELL_SLACK, 0, doc);
+    }
+
+    // height of element when laid out at the given width
+    private static float height(BlockElement<?> element, float width, Document doc) {
+        LayoutArea area = new LayoutArea(1, new Rectangle(width, MAX_HEIGHT));
+        return element.createRendererSubTree().setParent(doc.getRenderer()).layout(new LayoutContext(area))
+                .getOccupiedArea().getBBox().getHeight();
+    }
+
+    // lay element out once, at the given width, into a Form XObject with a margin of pad
+    private static PdfFormXObject render(BlockElement<?> element, float width, float pad, Document doc) {
+        PdfDocument pdfdoc = doc.getPdfDocument();
+        float height = height(element, width, doc);
+        PdfFormXObject xobject = new PdfFormXObject(new Rectangle(width + 2 * pad, height + 2 * pad));
+        Canvas canvas = new Canvas(new PdfCanvas(xobject, pdfdoc), new Rectangle(pad, pad, width, height));
+        canvas.add(element);
+        canvas.close();
+        return xobject;
+    }
+
+    /*
+     * Return how many ballots fit on a page of the given geometry below the
+     * header of the contest group, or 0 if the header leaves no room.
+     */
+    static int fitRows(Contest[] cs, VotingSheets vs, Document doc, PdfFont font, PageGeometry geometry) {
+        float[] widths = measureColumns(cs, vs, font, geometry);
+        float header = height(titlesTable(cs, widths, geometry.fontSize()), sum(widths), doc);
+        float first = height(rowsTable(widths[0], geometry.fontSize(), 1), widths[0], doc);
+        // rows below the first share the border above them with the row before,
+        // so each adds less height than a table of one row has
+        float row = height(rowsTable(widths[0], geometry.fontSize(), 2), widths[0], doc) - first;
+        // the ballots are followed by the partial, previous and running sums
+        float room = geometry.maxTableHeight() - header - first - SUMS_BORDER;
+        return Math.max(0, (int) Math.floor(room / row) + 1 - 3);
+    }
+
+    // a table of n ballot rows of one column, for measuring their height
+    private static Table rowsTable(float width, float fontSize, int n) {
+        Table table = new Table(new float[] { width }).setFixedLayout();
+        table.setWidth(width);
+        table.setFontSize(fontSize);
+        for (int i = 0; i < n; i++) {
+            table.addCell(new Cell().add(new Paragraph("1")));
+        }
+        return table;
+    }
+
+    // true if the votes table of the contest group fits across a page of the given geometry
+    static boolean fitsAcross(Contest[] cs, VotingSheets vs, PdfFont font, PageGeometry geometry) {
+        float width = sum(measureColumns(cs, vs, font, geometry));
+        return fitsAcross(width, pageNumberWidth(vs, font, geometry.rows()), geometry);
+    }
+}
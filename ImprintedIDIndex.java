@@ -0,0 +1,261 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Index over the ImprintedIds of a CVR, for building an RLA ballot manifest.
+ *
+ * An ImprintedId of the form "tabulator-batch-record" is packed into a single
+ * long so that the whole index is two primitive arrays (sorted keys and the
+ * ballot row each key came from). That makes duplicate and gap detection a
+ * single pass over the keys, and finding a pulled ballot on the sheets a
+ * binary search. ImprintedIds that do not have that form are kept in a
+ * HashMap instead. CVRValidator uses the same index to find repeated
+ * ImprintedIds in the raw ballot lines.
+ */
+class ImprintedIDIndex {
+    private static final String USAGE = "USAGE: java ImprintedIDIndex [options] CVR_name [ImprintedId ...]\n"
+            + "  with the --page-size, --landscape, --rows, --font-size and --auto-tune options\n"
+            + "  the sheets were made with, so that pages and lines are found as they were printed";
+    private static final int RECORD_BITS = 22;
+    private static final int BATCH_BITS = 21;
+    private static final int TABULATOR_BITS = 20;
+    private static final long NOT_PACKABLE = -1;
+
+    private final String title; // of the CVR
+    private final long[] keys; // packed ImprintedIds, sorted
+    private final int[] rows; // rows[i] == ballot row of keys[i]
+    // ImprintedIds that could not be packed, with key = ImprintedId, val = row
+    private final HashMap<String, Integer> unpacked;
+    private final ArrayList<String> duplicates; // ImprintedIds seen more than once
+    private final ArrayList<int[]> duplicate_rows; // every row of duplicates.get(i), in order
+
+    public ImprintedIDIndex(VotingSheets sheets) {
+        this(sheets.title(), imprintedIDs(sheets));
+    }
+
+    /*
+     * Index the ImprintedId of every ballot row, ids[i] being that of row i,
+     * or null if the row has none.
+     */
+    ImprintedIDIndex(String title, String[] ids) {
+        this.title = title;
+        this.unpacked = new HashMap<String, Integer>();
+        this.duplicates = new ArrayList<String>();
+        this.duplicate_rows = new ArrayList<int[]>();
+        // key = repeated ImprintedId that could not be packed, val = its rows
+        LinkedHashMap<String, ArrayList<Integer>> unpacked_repeats = new LinkedHashMap<String, ArrayList<Integer>>();
+        long[] keys = new long[ids.length];
+        int[] rows = new int[ids.length];
+        int n = 0;
+        boolean sorted = true;
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] == null)
+                continue;
+            long key = pack(ids[i]);
+            if (key == NOT_PACKABLE) {
+                Integer first = unpacked.putIfAbsent(ids[i], i);
+                if (first != null)
+                    unpacked_repeats.computeIfAbsent(ids[i], k -> new ArrayList<Integer>(Arrays.asList(first))).add(i);
+                continue;
+            }
+            sorted &= n == 0 || keys[n - 1] <= key;
+            keys[n] = key;
+            rows[n++] = i;
+        }
+        // the ballots of a VotingSheets are already in ImprintedId order, so
+        // this is only needed for raw CVR lines or unusual ImprintedIds
+        if (!sorted)
+            sortByKey(keys, rows, new long[n], new int[n], 0, n);
+        this.keys = Arrays.copyOf(keys, n);
+        this.rows = Arrays.copyOf(rows, n);
+        for (int i = 1, start = 0; i <= n; i++) {
+            if (i < n && keys[i] == keys[start])
+                continue;
+            if (i - start > 1) {
+                duplicates.add(unpack(keys[start]));
+                duplicate_rows.add(Arrays.copyOfRange(rows, start, i));
+            }
+            start = i;
+        }
+        for (Map.Entry<String, ArrayList<Integer>> e : unpacked_repeats.entrySet()) {
+            duplicates.add(e.getKey());
+            duplicate_rows.add(e.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+    }
+
+    private static String[] imprintedIDs(VotingSheets sheets) {
+        String[] ids = new String[sheets.ballots()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = sheets.getImprintedID(i);
+        }
+        return ids;
+    }
+
+    /*
+     * Sort keys[from, to) with their rows, keeping the rows of equal keys in
+     * order; a merge sort on the primitive arrays, so that no row is boxed.
+     */
+    private static void sortByKey(long[] keys, int[] rows, long[] tmp_keys, int[] tmp_rows, int from, int to) {
+        if (to - from < 2)
+            return;
+        int mid = (from + to) >>> 1;
+        sortByKey(keys, rows, tmp_keys, tmp_rows, from, mid);
+        sortByKey(keys, rows, tmp_keys, tmp_rows, mid, to);
+        System.arraycopy(keys, from, tmp_keys, from, to - from);
+        System.arraycopy(rows, from, tmp_rows, from, to - from);
+        for (int i = from, l = from, r = mid; i < to; i++) {
+            boolean left = r == to || (l < mid && tmp_keys[l] <= tmp_keys[r]);
+            keys[i] = left ? tmp_keys[l] : tmp_keys[r];
+            rows[i] = left ? tmp_rows[l++] : tmp_rows[r++];
+        }
+    }
+
+    /*
+     * Pack "tabulator-batch-record" into a long, or return NOT_PACKABLE if s is
+     * not three non-negative numbers that fit in their fields. A part with a
+     * leading zero is not packed either, as "2-01-7" and "2-1-7" are different
+     * ImprintedIds but would get the same key.
+     */
+    static long pack(String s) {
+        long[] parts = new long[3];
+        int part = 0;
+        int digits = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '-') {
+                if (digits == 0 || ++part == parts.length)
+                    return NOT_PACKABLE;
+                digits = 0;
+            } else if (c >= '0' && c <= '9' && digits < 9) {
+                if (digits == 1 && parts[part] == 0)
+                    return NOT_PACKABLE; // leading zero
+                parts[part] = parts[part] * 10 + (c - '0');
+                digits++;
+            } else {
+                return NOT_PACKABLE;
+            }
+        }
+        if (part != 2 || digits == 0)
+            return NOT_PACKABLE;
+        if (parts[0] >= 1L << TABULATOR_BITS || parts[1] >= 1L << BATCH_BITS || parts[2] >= 1L << RECORD_BITS)
+            return NOT_PACKABLE;
+        return (parts[0] << (BATCH_BITS + RECORD_BITS)) | (parts[1] << RECORD_BITS) | parts[2];
+    }
+
+    private static long tabulator(long key) {
+        return key >>> (BATCH_BITS + RECORD_BITS);
+    }
+
+    private static long batch(long key) {
+        return (key >>> RECORD_BITS) & ((1L << BATCH_BITS) - 1);
+    }
+
+    private static long record(long key) {
+        return key & ((1L << RECORD_BITS) - 1);
+    }
+
+    private static String unpack(long key) {
+        return tabulator(key) + "-" + batch(key) + "-" + record(key);
+    }
+
+    // ImprintedIds that appear on more than one ballot
+    public ArrayList<String> duplicates() {
+        return duplicates;
+    }
+
+    // duplicateRows().get(i) holds every ballot row of duplicates().get(i), in order
+    public ArrayList<int[]> duplicateRows() {
+        return duplicate_rows;
+    }
+
+    /*
+     * Return the missing records of every tabulator batch, one entry per run
+     * of missing records, e.g. "batch 2-1 is missing records 7 to 9". Records
+     * are expected to be numbered from 1.
+     */
+    public ArrayList<String> gaps() {
+        ArrayList<String> gaps = new ArrayList<String>();
+        for (int i = 0; i < keys.length; i++) {
+            boolean new_batch = i == 0 || (keys[i] >>> RECORD_BITS) != (keys[i - 1] >>> RECORD_BITS);
+            long expected = new_batch ? 1 : record(keys[i - 1]) + 1;
+            if (record(keys[i]) > expected) {
+                String batch = tabulator(keys[i]) + "-" + batch(keys[i]);
+                long last = record(keys[i]) - 1;
+                gaps.add("batch " + batch + " is missing "
+                        + (last == expected ? "record " + expected : "records " + expected + " to " + last));
+            }
+        }
+        return gaps;
+    }
+
+    // return the ballot row of the ImprintedId, or -1 if it is not in the CVR
+    public int find(String imprinted_id) {
+        long key = pack(imprinted_id);
+        if (key == NOT_PACKABLE) {
+            Integer row = unpacked.get(imprinted_id);
+            return row == null ? -1 : row;
+        }
+        int i = Arrays.binarySearch(keys, key);
+        return i < 0 ? -1 : rows[i];
+    }
+
+    /*
+     * Return where the ImprintedId is printed on every sheet of the layout,
+     * e.g. "2-1-7 (ballot #7) is on page 1, line 7 of 1.pdf, 5.pdf".
+     */
+    public String locate(String imprinted_id, SheetLayout layout) {
+        int row = find(imprinted_id);
+        if (row == -1)
+            return imprinted_id + " is not in " + title;
+        // key = page and line, val = the sheets that print the ballot there
+        LinkedHashMap<String, ArrayList<String>> places = new LinkedHashMap<String, ArrayList<String>>();
+        for (int i = 0; i < layout.size(); i++) {
+            int rows = layout.geometry(i).rows();
+            String place = "page " + (row / rows + 1) + ", line " + (row % rows + 1);
+            places.computeIfAbsent(place, k -> new ArrayList<String>()).add(layout.fileName(i));
+        }
+        StringBuilder sb = new StringBuilder(imprinted_id + " (ballot #" + (row + 1) + ") is on ");
+        boolean first = true;
+        for (Map.Entry<String, ArrayList<String>> e : places.entrySet()) {
+            sb.append(first ? "" : "; ").append(e.getKey()).append(" of ").append(String.join(", ", e.getValue()));
+            first = false;
+        }
+        return sb.toString();
+    }
+
+    public static void main(String[] args) {
+        Options options = Options.parse(args, USAGE);
+        if (options == null)
+            return;
+        String cvr = options.cvrs().get(0);
+        // repeated ImprintedIds are reported below rather than refused
+        VotingSheets s = VotingSheets.readCVR(cvr, true);
+        if (s == null)
+            return;
+        ImprintedIDIndex index = new ImprintedIDIndex(s);
+        for (String id : index.duplicates()) {
+            System.out.println("duplicate ImprintedId " + id);
+        }
+        for (String gap : index.gaps()) {
+            System.out.println(gap);
+        }
+        if (options.cvrs().size() == 1)
+            return;
+        SheetLayout layout;
+        try {
+            layout = SheetLayout.plan(s, options);
+        } catch (IOException e) {
+            System.err.println("Could not lay out the sheets of " + cvr + ": " + e.getMessage());
+            return;
+        }
+        if (layout == null)
+            return;
+        for (int i = 1; i < options.cvrs().size(); i++) {
+            System.out.println(index.locate(options.cvrs().get(i), layout));
+        }
+    }
+}
@@ -0,0 +1,207 @@
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Scanner;
+
+/*
+ * Times Labels against the String.replaceAll chain it replaced, on the contest
+ * and candidate names of a CVR plus random labels made of the words the joins
+ * care about. Every label is first checked to come out exactly as before.
+ *
+ * After a warm-up pass of each, the line breaking itself is timed without the
+ * memo, against replaceAll on the same labels; the memo hits that the sheets
+ * mostly get are timed and reported on their own line.
+ *
+ *   java LabelBenchmark TestInput.csv [rounds]
+ */
+class LabelBenchmark {
+    private static final int MAX_RANDOM = 10000; // below the memo size of Labels
+    private static final String[] WORDS = { "/", "-", "1", "2", "9", "10", "", "District", "Court", "of", "Appeals" };
+
+    // the line breaking of contest names before Labels
+    private static String oldSplitToKLines(String s, int k, int len) {
+        s = s.replaceAll(" ", "\n").replaceAll("\n/\n", " /\n").replaceAll("\n-\n", " -\n");
+        for (int i = 0; i <= 9; i++) {
+            String ofInt = Integer.toString(i);
+            s = s.replaceAll("\n" + ofInt + "\n", " " + ofInt + "\n").replaceAll("\n" + ofInt + "$", " " + ofInt);
+        }
+        String[] words = s.split("\n");
+        if (words.length <= k) {
+            return s;
+        }
+        StringBuilder fullText = new StringBuilder();
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < words.length; i++) {
+            line.append(words[i]).append(" ");
+            if (i + 1 == words.length || line.length() + words[i + 1].length() > len) {
+                line.deleteCharAt(line.length() - 1);
+                fullText.append(line.toString()).append("\n");
+                line = new StringBuilder();
+            }
+        }
+        return fullText.toString();
+    }
+
+    // the line breaking of candidate names before Labels
+    private static String oldSplitIntoLines(String candidate) {
+        candidate = candidate.replaceAll(" ", "\n");
+        return candidate.replaceAll("\n/\n", " /\n");
+    }
+
+    private static int oldLongestWord(String s) {
+        int cur = 0;
+        for (String word : s.split(" ")) {
+            cur = Math.max(cur, word.length());
+        }
+        return cur;
+    }
+
+    private static List<String> randomLabels(int n) {
+        Random random = new Random(1);
+        List<String> labels = new ArrayList<String>();
+        for (int i = 0; i < n; i++) {
+            StringBuilder sb = new StringBuilder();
+            for (int w = random.nextInt(8); w >= 0; w--) {
+                sb.append(WORDS[random.nextInt(WORDS.length)]).append(w > 0 ? " " : "");
+            }
+            labels.add(sb.toString());
+        }
+        return labels;
+    }
+
+    // 0 if every label comes out of Labels as it did before, else the number that differ
+    private static int compare(List<String> contests, List<String> candidates) {
+        int differ = 0;
+        for (String s : contests) {
+            for (int k = 1; k <= 5; k++) {
+                for (int len = 5; len <= 40; len += 5) {
+                    if (!oldSplitToKLines(s, k, len).equals(Labels.contest(s, k, len))) {
+                        System.err.println("Contest name differs for k = " + k + ", len = " + len + ": \"" + s + "\"");
+                        differ++;
+                    }
+                }
+            }
+        }
+        for (String s : candidates) {
+            if (!oldSplitIntoLines(s).equals(Labels.candidate(s)) || oldLongestWord(s) != Labels.longestWord(s)) {
+                System.err.println("Candidate name differs: \"" + s + "\"");
+                differ++;
+            }
+        }
+        return differ;
+    }
+
+    // the distinct non-empty fields of a header line of the CVR
+    private static List<String> fields(String line) {
+        List<String> fields = new ArrayList<String>();
+        for (String field : line.split(",")) {
+            if (!field.isEmpty() && !fields.contains(field))
+                fields.add(field);
+        }
+        return fields;
+    }
+
+    private static long timeOld(List<String> contests, List<String> candidates, int rounds) {
+        long sink = 0;
+        for (int r = 0; r < rounds; r++) {
+            for (String s : contests) {
+                sink += oldSplitToKLines(s, 3, 20).length();
+            }
+            for (String s : candidates) {
+                sink += oldSplitIntoLines(s).length() + oldLongestWord(s);
+            }
+        }
+        return sink;
+    }
+
+    // Labels without its memo, so every label is broken into lines again
+    private static long timeUncached(List<String> contests, List<String> candidates, int rounds) {
+        long sink = 0;
+        for (int r = 0; r < rounds; r++) {
+            for (String s : contests) {
+                sink += Labels.splitToKLines(s, 3, 20).length();
+            }
+            for (String s : candidates) {
+                sink += Labels.splitIntoLines(s).length() + Labels.longestWord(s);
+            }
+        }
+        return sink;
+    }
+
+    // Labels as the sheets call it, every label after the first a memo hit
+    private static long timeMemo(List<String> contests, List<String> candidates, int rounds) {
+        long sink = 0;
+        for (int r = 0; r < rounds; r++) {
+            for (String s : contests) {
+                sink += Labels.contest(s, 3, 20).length();
+            }
+            for (String s : candidates) {
+                sink += Labels.candidate(s).length() + Labels.longestWord(s);
+            }
+        }
+        return sink;
+    }
+
+    private static void report(String what, long old_ns, long new_ns, long calls) {
+        System.out.printf("%-36s replaceAll %8.1f ns/label, Labels %8.1f ns/label (%.1fx)%n", what,
+                (double) old_ns / calls, (double) new_ns / calls, (double) old_ns / new_ns);
+    }
+
+    public static void main(String[] args) throws FileNotFoundException {
+        if (args.length < 1) {
+            System.err.println("Usage: java LabelBenchmark <cvr.csv> [rounds]");
+            System.exit(1);
+        }
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        Scanner scanner = new Scanner(new File(args[0]));
+        scanner.nextLine(); // title
+        List<String> contests = fields(scanner.nextLine());
+        List<String> candidates = fields(scanner.nextLine());
+        candidates.addAll(fields(scanner.nextLine())); // parties are measured the same way
+        scanner.close();
+
+        List<String> random = randomLabels(MAX_RANDOM);
+        int differ = compare(contests, candidates) + compare(random, random);
+        if (differ > 0) {
+            System.err.println(differ + " labels differ from the replaceAll version");
+            System.exit(1);
+        }
+        System.out.println(contests.size() + " contest names, " + candidates.size() + " candidate and party names and "
+                + random.size() + " random labels break as before");
+
+        // every timing is taken on its second pass; the first warms up the JIT
+        int random_rounds = Math.max(1, rounds / 200);
+        long t0 = 0, t1 = 0, t2 = 0, sink = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            t0 = System.nanoTime();
+            sink += timeOld(random, random, random_rounds);
+            t1 = System.nanoTime();
+            sink += timeUncached(random, random, random_rounds);
+            t2 = System.nanoTime();
+        }
+        report("random labels, no memo:", t1 - t0, t2 - t1, 2L * random_rounds * random.size());
+
+        // the labels of the CVR over and over, as for every contest group and CVR
+        long calls = (long) rounds * (contests.size() + candidates.size());
+        long old_ns = 0;
+        for (int pass = 0; pass < 2; pass++) {
+            t0 = System.nanoTime();
+            sink += timeOld(contests, candidates, rounds);
+            t1 = System.nanoTime();
+            sink += timeUncached(contests, candidates, rounds);
+            t2 = System.nanoTime();
+            old_ns = t1 - t0;
+        }
+        report("labels of " + args[0] + ", no memo:", old_ns, t2 - t1, calls);
+        for (int pass = 0; pass < 2; pass++) {
+            t0 = System.nanoTime();
+            sink += timeMemo(contests, candidates, rounds);
+            t1 = System.nanoTime();
+        }
+        report("labels of " + args[0] + ", memo hits:", old_ns, t1 - t0, calls);
+        if (sink == 42)
+            System.out.println();
+    }
+}
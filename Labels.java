@@ -0,0 +1,225 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+/*
+ * Line breaking of contest and candidate labels for the sheet headers.
+ *
+ * A label is broken at every space, except that some short words are kept on
+ * the line of the word before them: "/" in both contest and candidate labels,
+ * and "-" and single digits in contest labels, so that "Jared Polis / Dianne
+ * Primavera" keeps "Polis /" together and "District 1" is not split.
+ *
+ * This used to be a dozen String.replaceAll calls per label. The label is now
+ * read once into word boundaries, the joins are made on those boundaries and
+ * the result is built once. The joins deliberately give exactly what the
+ * replaceAll chain gave, quirks included, since the line breaks decide the
+ * widths of the contests and so which contests share a sheet. Results are
+ * memoized, as the same contest and candidate names come back for every
+ * contest group and every CVR of an election.
+ */
+class Labels {
+    // the words joined to the word before them, in the order the joins are made
+    private static final String[] CONTEST_JOINS = { "/", "-", "0", "1", "2", "3", "4", "5", "6", "7", "8", "9" };
+    private static final String[] CANDIDATE_JOINS = { "/" };
+    private static final int MAX_MEMO = 1 << 14; // labels remembered per kind
+
+    // key = label, val = the label broken into lines
+    private static final ConcurrentHashMap<String, String> candidate_memo = new ConcurrentHashMap<String, String>();
+    private static final ConcurrentHashMap<ContestKey, String> contest_memo = new ConcurrentHashMap<ContestKey, String>();
+
+    private static final class ContestKey {
+        private final String s;
+        private final int k;
+        private final int len;
+
+        private ContestKey(String s, int k, int len) {
+            this.s = s;
+            this.k = k;
+            this.len = len;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof ContestKey))
+                return false;
+            ContestKey other = (ContestKey) o;
+            return k == other.k && len == other.len && s.equals(other.s);
+        }
+
+        @Override
+        public int hashCode() {
+            return (s.hashCode() * 31 + k) * 31 + len;
+        }
+    }
+
+    /*
+     * A label split at its spaces: word i is s[start[i], end[i]), and joined[i]
+     * is true if word i + 1 stays on the same line as word i.
+     */
+    private static final class Words {
+        private final String s;
+        private final int n;
+        private final int[] start;
+        private final int[] end;
+        private final boolean[] joined;
+
+        private Words(String s) {
+            this.s = s;
+            int n = 1;
+            for (int i = 0; i < s.length(); i++) {
+                if (s.charAt(i) == ' ')
+                    n++;
+            }
+            this.n = n;
+            this.start = new int[n];
+            this.end = new int[n];
+            this.joined = new boolean[n];
+            for (int i = 0, w = 0; w < n; w++) {
+                start[w] = i;
+                while (i < s.length() && s.charAt(i) != ' ')
+                    i++;
+                end[w] = i++;
+            }
+        }
+
+        private boolean is(int w, String word) {
+            return end[w] - start[w] == word.length() && s.startsWith(word, start[w]);
+        }
+
+        /*
+         * Join every word equal to word onto the word before it, as
+         * replaceAll("\nW\n", " W\n") would, then, if at_end, the last word as
+         * replaceAll("\nW$", " W") would. A join uses up the break after the
+         * word, so a word right after a join is never joined by the same call.
+         * Like $, the end is also just before a line break that ends the label.
+         */
+        private void join(String word, boolean at_end) {
+            for (int w = 1; w + 1 < n; w++) {
+                if (!joined[w - 1] && !joined[w] && is(w, word)) {
+                    joined[w - 1] = true;
+                    w++;
+                }
+            }
+            if (!at_end)
+                return;
+            int last = n > 1 && length(n - 1) == 0 && !joined[n - 2] ? n - 2 : n - 1;
+            if (last > 0 && !joined[last - 1] && is(last, word))
+                joined[last - 1] = true;
+        }
+
+        private int length(int w) {
+            return end[w] - start[w];
+        }
+    }
+
+    private static Words joinWords(String s, String[] joins, boolean digits_at_end) {
+        Words words = new Words(s);
+        for (String word : joins) {
+            words.join(word, digits_at_end && Character.isDigit(word.charAt(0)));
+        }
+        return words;
+    }
+
+    // the label with a line break at every break between words
+    private static String lines(Words words) {
+        StringBuilder sb = new StringBuilder(words.s.length());
+        for (int w = 0; w < words.n; w++) {
+            sb.append(words.s, words.start[w], words.end[w]);
+            if (w + 1 < words.n)
+                sb.append(words.joined[w] ? ' ' : '\n');
+        }
+        return sb.toString();
+    }
+
+    // break a candidate's name into one line per word, see Labels
+    public static String candidate(String candidate) {
+        String lines = candidate_memo.get(candidate);
+        if (lines == null) {
+            lines = splitIntoLines(candidate);
+            if (candidate_memo.size() < MAX_MEMO)
+                candidate_memo.put(candidate, lines);
+        }
+        return lines;
+    }
+
+    // candidate() without the memo
+    static String splitIntoLines(String candidate) {
+        return lines(joinWords(candidate, CANDIDATE_JOINS, false));
+    }
+
+    /*
+     * Break a contest name into lines, see Labels. If that gives more than k
+     * lines, the lines are instead packed greedily into lines of about len
+     * characters, each ending in a line break.
+     */
+    public static String contest(String s, int k, int len) {
+        ContestKey key = new ContestKey(s, k, len);
+        String lines = contest_memo.get(key);
+        if (lines == null) {
+            lines = splitToKLines(s, k, len);
+            if (contest_memo.size() < MAX_MEMO)
+                contest_memo.put(key, lines);
+        }
+        return lines;
+    }
+
+    // contest() without the memo
+    static String splitToKLines(String s, int k, int len) {
+        Words words = joinWords(s, CONTEST_JOINS, true);
+        // first and one-past-last word of every line; trailing empty lines are
+        // not counted, as String.split would not count them
+        int[] line_start = new int[words.n];
+        int[] line_end = new int[words.n];
+        int lines = 0;
+        for (int w = 0; w < words.n; w++) {
+            line_start[lines] = w;
+            while (words.joined[w])
+                w++;
+            line_end[lines++] = w + 1;
+        }
+        while (lines > 0 && line_end[lines - 1] - line_start[lines - 1] == 1
+                && words.length(line_start[lines - 1]) == 0)
+            lines--;
+        if (lines <= k)
+            return lines(words);
+        StringBuilder fullText = new StringBuilder(s.length() + lines);
+        int line_length = 0; // length of the current line, with a trailing space
+        for (int i = 0; i < lines; i++) {
+            for (int w = line_start[i]; w < line_end[i]; w++) {
+                fullText.append(s, words.start[w], words.end[w]).append(w + 1 < line_end[i] ? " " : "");
+            }
+            line_length += lineLength(words, line_start[i], line_end[i]) + 1;
+            if (i + 1 == lines
+                    || line_length + lineLength(words, line_start[i + 1], line_end[i + 1]) > len) {
+                fullText.append('\n');
+                line_length = 0;
+            } else {
+                fullText.append(' ');
+            }
+        }
+        return fullText.toString();
+    }
+
+    // length of the line made of words [from, to), with single spaces between them
+    private static int lineLength(Words words, int from, int to) {
+        int length = to - from - 1;
+        for (int w = from; w < to; w++) {
+            length += words.length(w);
+        }
+        return length;
+    }
+
+    // length of the longest word of s, without splitting it
+    public static int longestWord(String s) {
+        int longest = 0;
+        int current = 0;
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) == ' ') {
+                current = 0;
+            } else {
+                current++;
+                longest = Math.max(longest, current);
+            }
+        }
+        return longest;
+    }
+}
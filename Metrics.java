@@ -0,0 +1,163 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Counters of a run: ballots parsed, pages planned and rendered for every
+ * contest group, bytes written and the current stage. They are LongAdders so
+ * that any number of render threads can update them without contending; a
+ * ProgressReporter reads them for the progress bar, the JSON metrics file and
+ * JMX.
+ */
+public class Metrics implements MetricsMBean {
+    private static final Metrics GLOBAL = new Metrics();
+
+    // pages of one contest group, keyed by the first contest of the group
+    private static class Group {
+        private final String name; // file the group is written to
+        private volatile long planned;
+        private final LongAdder rendered = new LongAdder();
+
+        private Group(String name, long planned) {
+            this.name = name;
+            this.planned = planned;
+        }
+    }
+
+    private final long start = System.nanoTime();
+    private final LongAdder ballots_parsed = new LongAdder();
+    private final LongAdder pages_rendered = new LongAdder();
+    private final LongAdder bytes_written = new LongAdder();
+    private final ConcurrentHashMap<Contest, Group> groups = new ConcurrentHashMap<Contest, Group>();
+    private volatile String stage = "starting";
+    private volatile long first_page = -1; // System.nanoTime() of the first rendered page
+
+    // the metrics of this run
+    public static Metrics global() {
+        return GLOBAL;
+    }
+
+    public void stage(String stage) {
+        this.stage = stage;
+    }
+
+    public void ballotsParsed(long n) {
+        ballots_parsed.add(n);
+    }
+
+    // expect pages pages for the group starting with first, written to name
+    public void plan(Contest first, String name, long pages) {
+        groups.put(first, new Group(name, pages));
+    }
+
+    public void pageRendered(Contest first) {
+        if (first_page == -1)
+            first_page = System.nanoTime();
+        pages_rendered.increment();
+        Group g = groups.get(first);
+        if (g != null)
+            g.rendered.increment();
+    }
+
+    // out, counting every byte written through it
+    public OutputStream count(OutputStream out) {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                bytes_written.increment();
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                bytes_written.add(len);
+            }
+
+            @Override
+            public void flush() throws IOException {
+                out.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.close();
+            }
+        };
+    }
+
+    public String getStage() {
+        return stage;
+    }
+
+    public long getBallotsParsed() {
+        return ballots_parsed.sum();
+    }
+
+    public long getPagesPlanned() {
+        long pages = 0;
+        for (Group g : groups.values()) {
+            pages += g.planned;
+        }
+        return pages;
+    }
+
+    public long getPagesRendered() {
+        return pages_rendered.sum();
+    }
+
+    public long getBytesWritten() {
+        return bytes_written.sum();
+    }
+
+    public long getElapsedSeconds() {
+        return (System.nanoTime() - start) / 1000000000L;
+    }
+
+    public long getEtaSeconds() {
+        long rendered = getPagesRendered();
+        long first = first_page;
+        if (rendered == 0 || first == -1)
+            return -1;
+        double seconds_per_page = (System.nanoTime() - first) / 1e9 / rendered;
+        return (long) (Math.max(0, getPagesPlanned() - rendered) * seconds_per_page);
+    }
+
+    private static String quoted(String s) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\')
+                sb.append('\\').append(c);
+            else if (c < ' ')
+                sb.append(String.format("\\u%04x", (int) c));
+            else
+                sb.append(c);
+        }
+        return sb.append('"').toString();
+    }
+
+    // a snapshot of every counter as a JSON object
+    public String toJSON() {
+        StringBuilder sb = new StringBuilder("{");
+        sb.append("\"stage\": ").append(quoted(getStage()));
+        sb.append(", \"elapsed_seconds\": ").append(getElapsedSeconds());
+        sb.append(", \"eta_seconds\": ").append(getEtaSeconds());
+        sb.append(", \"ballots_parsed\": ").append(getBallotsParsed());
+        sb.append(", \"pages_planned\": ").append(getPagesPlanned());
+        sb.append(", \"pages_rendered\": ").append(getPagesRendered());
+        sb.append(", \"bytes_written\": ").append(getBytesWritten());
+        sb.append(", \"groups\": [");
+        boolean first = true;
+        for (Map.Entry<Contest, Group> e : groups.entrySet()) {
+            Group g = e.getValue();
+            sb.append(first ? "" : ", ").append("{\"file\": ").append(quoted(g.name));
+            sb.append(", \"pages_planned\": ").append(g.planned);
+            sb.append(", \"pages_rendered\": ").append(g.rendered.sum()).append('}');
+            first = false;
+        }
+        return sb.append("]}").toString();
+    }
+}
@@ -0,0 +1,20 @@
+/*
+ * What Metrics shows over JMX, e.g. in jconsole under
+ * ComparisonRLASums:type=Metrics.
+ */
+public interface MetricsMBean {
+    String getStage();
+
+    long getBallotsParsed();
+
+    long getPagesPlanned();
+
+    long getPagesRendered();
+
+    long getBytesWritten();
+
+    long getElapsedSeconds();
+
+    // -1 until the first page is rendered
+    long getEtaSeconds();
+}
@@ -0,0 +1,214 @@
+import com.itextpdf.kernel.geom.PageSize;
+import com.itextpdf.kernel.pdf.CompressionConstants;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfString;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.kernel.pdf.WriterProperties;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+
+/*
+ * Command line options of VotingSheets, given before the CVR name as
+ * --name or --name=value.
+ */
+class Options {
+    public static final String USAGE = "USAGE: java VotingSheets [options] CVR_name [CVR_name ...]\n"
+            + "  --compression=N      Flate compression level, 0 (none) to 9 (smallest files)\n"
+            + "  --full-compression   pack objects into compressed object streams\n"
+            + "  --async-write        write each PDF to disk on a background thread\n"
+            + "  --page-size=NAME     A3, A4 (default), A5, LETTER, LEGAL, TABLOID or LEDGER\n"
+            + "  --landscape          turn the pages on their side\n"
+            + "  --rows=N             ballots listed on each page (default 50)\n"
+            + "  --font-size=N        font size of the votes table (default 6)\n"
+            + "  --auto-tune          pick the orientation and font size that need the fewest\n"
+            + "                       pages, listing as many ballots per page as fit\n"
+            + "  --concurrent         read every CVR and render every file at the same time,\n"
+            + "                       on virtual threads where the JVM has them\n"
+            + "  --max-open=N         most PDFs open at once with --concurrent (default 16)\n"
+            + "  --deterministic      fixed dates and document IDs, so the same CVR always\n"
+            + "                       gives byte-identical PDFs\n"
+            + "  --progress           show a progress bar with an ETA\n"
+            + "  --metrics=FILE       keep a JSON snapshot of the progress in FILE\n"
+            + "  --jmx                publish the progress as the MBean " + ProgressReporter.MBEAN_NAME;
+    // creation and modification date of deterministic PDFs
+    public static final String FIXED_DATE = "D:20000101000000Z";
+
+    public static final int DEFAULT_MAX_OPEN = 16;
+
+    private final ArrayList<String> cvrs; // paths to the CVRs
+    private int compression_level = CompressionConstants.DEFAULT_COMPRESSION;
+    private boolean full_compression = false;
+    private boolean async_write = false;
+    private PageSize page_size = PageSize.A4;
+    private boolean landscape = false;
+    private int rows = PageGeometry.DEFAULT_ROWS;
+    private float font_size = PageGeometry.DEFAULT_FONT_SIZE;
+    private boolean auto_tune = false;
+    private boolean concurrent = false;
+    private int max_open = DEFAULT_MAX_OPEN;
+    private boolean deterministic = false;
+    private boolean progress = false;
+    private String metrics_file = null;
+    private boolean jmx = false;
+
+    private Options() {
+        this.cvrs = new ArrayList<String>();
+    }
+
+    /*
+     * Parse the command line. Returns null, after printing the reason and the
+     * usage on System.err, if it is not valid.
+     */
+    public static Options parse(String[] args) {
+        return parse(args, USAGE);
+    }
+
+    // parse the command line of another tool that takes these options, with usage as its USAGE
+    public static Options parse(String[] args, String usage) {
+        Options o = new Options();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                o.cvrs.add(arg);
+                continue;
+            }
+            String[] tmp = arg.substring(2).split("=", 2);
+            String name = tmp[0];
+            String value = tmp.length == 2 ? tmp[1] : null;
+            try {
+                if (name.equals("compression") && value != null) {
+                    o.compression_level = Integer.parseInt(value);
+                    if (o.compression_level < 0 || o.compression_level > 9)
+                        return usage(usage, "--compression must be between 0 and 9");
+                } else if (name.equals("full-compression") && value == null) {
+                    o.full_compression = true;
+                } else if (name.equals("async-write") && value == null) {
+                    o.async_write = true;
+                } else if (name.equals("page-size") && value != null) {
+                    o.page_size = PageGeometry.pageSize(value);
+                    if (o.page_size == null)
+                        return usage(usage, "unknown page size " + value);
+                } else if (name.equals("landscape") && value == null) {
+                    o.landscape = true;
+                } else if (name.equals("rows") && value != null) {
+                    o.rows = Integer.parseInt(value);
+                    if (o.rows < 1)
+                        return usage(usage, "--rows must be at least 1");
+                } else if (name.equals("font-size") && value != null) {
+                    o.font_size = Float.parseFloat(value);
+                    if (!(o.font_size >= PageGeometry.MIN_FONT_SIZE))
+                        return usage(usage, "--font-size must be at least " + PageGeometry.MIN_FONT_SIZE);
+                } else if (name.equals("auto-tune") && value == null) {
+                    o.auto_tune = true;
+                } else if (name.equals("concurrent") && value == null) {
+                    o.concurrent = true;
+                } else if (name.equals("deterministic") && value == null) {
+                    o.deterministic = true;
+                } else if (name.equals("progress") && value == null) {
+                    o.progress = true;
+                } else if (name.equals("metrics") && value != null) {
+                    o.metrics_file = value;
+                } else if (name.equals("jmx") && value == null) {
+                    o.jmx = true;
+                } else if (name.equals("max-open") && value != null) {
+                    o.max_open = Integer.parseInt(value);
+                    if (o.max_open < 1)
+                        return usage(usage, "--max-open must be at least 1");
+                } else {
+                    return usage(usage, "unknown option " + arg);
+                }
+            } catch (NumberFormatException e) {
+                return usage(usage, "bad value in " + arg);
+            }
+        }
+        if (o.cvrs.isEmpty())
+            return usage(usage, null);
+        return o;
+    }
+
+    private static Options usage(String usage, String reason) {
+        if (reason != null)
+            System.err.println(reason);
+        System.err.println(usage);
+        return null;
+    }
+
+    public ArrayList<String> cvrs() {
+        return cvrs;
+    }
+
+    public PageGeometry geometry() {
+        PageGeometry geometry = new PageGeometry(page_size, rows, font_size);
+        return landscape ? geometry.rotate() : geometry;
+    }
+
+    public boolean autoTune() {
+        return auto_tune;
+    }
+
+    public boolean concurrent() {
+        return concurrent;
+    }
+
+    public int maxOpenDocuments() {
+        return max_open;
+    }
+
+    public boolean progress() {
+        return progress;
+    }
+
+    public String metricsFile() {
+        return metrics_file;
+    }
+
+    public boolean jmx() {
+        return jmx;
+    }
+
+    // open file_name for writing, in the chosen write mode
+    public OutputStream openOutput(String file_name) throws IOException {
+        OutputStream out = async_write ? new AsyncOutputStream(file_name)
+                : new BufferedOutputStream(new FileOutputStream(file_name));
+        return Metrics.global().count(out);
+    }
+
+    // a PdfWriter to out, the output opened for file_name, with the chosen compression
+    public PdfWriter openWriter(OutputStream out, String file_name) {
+        WriterProperties properties = new WriterProperties();
+        properties.setCompressionLevel(compression_level);
+        properties.setFullCompressionMode(full_compression);
+        if (deterministic) {
+            PdfString id = fixedID(file_name);
+            properties.setInitialDocumentId(id);
+            properties.setModifiedDocumentId(id);
+        }
+        return new PdfWriter(out, properties);
+    }
+
+    // a PdfDocument writing to out, the output opened for file_name, see openWriter
+    public PdfDocument openDocument(OutputStream out, String file_name) {
+        PdfDocument pdfdoc = new PdfDocument(openWriter(out, file_name));
+        if (deterministic) {
+            pdfdoc.getDocumentInfo().setMoreInfo("CreationDate", FIXED_DATE);
+            pdfdoc.getDocumentInfo().setMoreInfo("ModDate", FIXED_DATE);
+        }
+        return pdfdoc;
+    }
+
+    // the same ID every time for the same file, and different between files
+    private static PdfString fixedID(String file_name) {
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            return new PdfString(md5.digest(file_name.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // every JVM has MD5
+        }
+    }
+}
@@ -5,9 +5,9 @@ import com.itextpdf.layout.borders.Border;
 import com.itextpdf.layout.borders.SolidBorder;
 import com.itextpdf.layout.borders.DoubleBorder;
 import com.itextpdf.layout.element.Cell;
+import com.itextpdf.layout.element.Image;
 import com.itextpdf.layout.element.Paragraph;
 import com.itextpdf.layout.element.Table;
-import com.itextpdf.layout.property.HorizontalAlignment;
 import com.itextpdf.layout.property.VerticalAlignment;
 import com.itextpdf.layout.property.TextAlignment;
 import com.itextpdf.kernel.font.*;
@@ -29,9 +29,10 @@ public class Page {
     private final ArrayList<ArrayList<Integer>> prev_running_sums;
     private final Contest[] cs; // contest sheet
     private final int num_pages; // number of pages
+    private final GroupHeader header; // title and table header shared by every page
 
     public Page(Contest[] cs, int pageID, int votes_line_start_i, ArrayList<ArrayList<Integer>> partial_sums,
-            ArrayList<ArrayList<Integer>> prev_running_sums, int num_pages) {
+            ArrayList<ArrayList<Integer>> prev_running_sums, int num_pages, GroupHeader header) {
         this.pageID = pageID;
         this.votes_line_start_i = votes_line_start_i;
         this.cs = cs;
@@ -43,8 +44,10 @@ public class Page {
         this.partial_sums = partial_sums;
         this.prev_running_sums = prev_running_sums;
         int lines = cs[0].ballots() - votes_line_start_i;
-        this.num_lines_on_page = lines > cs[0].BALLOTS_PER_PAGE() ? cs[0].BALLOTS_PER_PAGE() : lines;
+        int rows = header.geometry().rows();
+        this.num_lines_on_page = lines > rows ? rows : lines;
         this.num_pages = num_pages;
+        this.header = header;
     }
 
     private Table createPageNumberTable(float left, float bottom, float fontSize) {
@@ -74,27 +77,14 @@ public class Page {
     }
 
     private void addTitle(Document doc, float fontSize, PageSize ps) {
-        Table table = new Table(1);
-        // table.setWidthPercentage();
-        int len = cs[0].title().length();
-        table.setWidth(len);
+        Image title = new Image(header.title());
         float top_row = ps.getHeight() - 2 * fontSize;
-        table.setTextAlignment(TextAlignment.CENTER);
-        Paragraph p = new Paragraph(cs[0].title());
-        Cell cell = new Cell();
-        cell.setBorder(Border.NO_BORDER);
-        cell.add(p);
-        while (len * fontSize >= ps.getWidth() * 2) {
-            fontSize--;
-        }
-        table.setFontSize(fontSize);
-        float middle_with_offset = ps.getWidth() / 2 - (fontSize * len / 2);
-        table.setFixedPosition(pageID, middle_with_offset, top_row, len * fontSize);
-        table.addCell(cell);
-        doc.add(table);
+        float middle_with_offset = (ps.getWidth() - header.title().getWidth()) / 2;
+        title.setFixedPosition(pageID, middle_with_offset, top_row);
+        doc.add(title);
     }
 
-    private void addContestsNames(Table table) {
+    private static void addContestsNames(Contest[] cs, Table table) {
         Border border = new DoubleBorder(2);
         Cell cell = new Cell(0, 2).add(new Paragraph("Contests"));
         cell.setVerticalAlignment(VerticalAlignment.BOTTOM);
@@ -109,19 +99,19 @@ public class Page {
         }
     }
 
-    public void addTitlesToTable(Table table) {
-        addContestsNames(table);
-        addParties(table);
+    public static void addTitlesToTable(Contest[] cs, Table table) {
+        addContestsNames(cs, table);
+        addParties(cs, table);
         table.startNewRow();
-        addCandidateNamesRow(table);
+        addCandidateNamesRow(cs, table);
     }
 
-    private void addParties(Table table) {
-        if (!has_parties(this.cs))
+    private static void addParties(Contest[] cs, Table table) {
+        if (!has_parties(cs))
             return;
 
         table.addCell(new Cell(0, 2).add(new Paragraph("Party")));
-        addPartiesRow(table);
+        addPartiesRow(cs, table);
     }
 
     private static boolean has_parties(Contest[] contests) {
@@ -135,18 +125,18 @@ public class Page {
         return false;
     }
 
-    private void addPartiesRow(Table table) {
+    private static void addPartiesRow(Contest[] cs, Table table) {
         DoubleBorder separation_border = new DoubleBorder(2);
         for (int c = 0; c < cs.length; c++) {
             for (int i = 0; i < cs[c].cols(); i++) {
                 Cell cell = new Cell().add(new Paragraph(cs[c].party(i)));
-                setBorderForNewContest(separation_border, c, i, cell);
+                setBorderForNewContest(cs, separation_border, c, i, cell);
                 table.addCell(cell);
             }
         }
     }
 
-    private void addCandidateNamesRow(Table table) {
+    private static void addCandidateNamesRow(Contest[] cs, Table table) {
         Border border = new SolidBorder(2);
         DoubleBorder separation_border = new DoubleBorder(2);
         Cell cell = candidateRowCell(border, "#");
@@ -158,13 +148,13 @@ public class Page {
                 cell = new Cell().add(new Paragraph(candidate));
                 cell.setBorderBottom(border);
                 cell.setVerticalAlignment(VerticalAlignment.BOTTOM);
-                setBorderForNewContest(separation_border, c, i, cell);
+                setBorderForNewContest(cs, separation_border, c, i, cell);
                 table.addCell(cell);
             }
         }
     }
 
-    private Cell candidateRowCell(Border border, String contents) {
+    private static Cell candidateRowCell(Border border, String contents) {
         Cell cell;
         cell = new Cell().add(new Paragraph(contents));
         cell.setBorderBottom(border);
@@ -173,12 +163,11 @@ public class Page {
         return cell;
     }
 
-    private static String splitIntoLines(String candidate) {
-        candidate = candidate.replaceAll(" ", "\n");
-        return candidate.replaceAll("\n/\n", " /\n");
+    static String splitIntoLines(String candidate) {
+        return Labels.candidate(candidate);
     }
 
-    private void setBorderForNewContest(Border separation_border, int c, int i, Cell cell) {
+    private static void setBorderForNewContest(Contest[] cs, Border separation_border, int c, int i, Cell cell) {
         if (c < cs.length - 1 && i == cs[c].cols() - 1) {
             cell.setBorderRight(separation_border);
         }
@@ -213,7 +202,7 @@ public class Page {
                     } else if (vc == VoteCount.OVER_VOTE) {
                         cell.setBackgroundColor(ColorConstants.RED);
                     }
-                    setBorderForNewContest(separation_border, c, j, cell);
+                    setBorderForNewContest(cs, separation_border, c, j, cell);
                     table.addCell(cell);
                 }
             }
@@ -232,7 +221,7 @@ public class Page {
 
     private void addRunningSums(Table table) {
         Border separation_border = new DoubleBorder(2);
-        Cell rps = new Cell().add(new Paragraph(Integer.toString(votes_line_start_i + cs[0].BALLOTS_PER_PAGE())));
+        Cell rps = new Cell().add(new Paragraph(Integer.toString(votes_line_start_i + header.geometry().rows())));
         rps.setBorderRight(separation_border);
         table.addCell(rps);
         Cell running = new Cell().add(new Paragraph("Running"));
@@ -241,7 +230,7 @@ public class Page {
             for (int i = 0; i < cs[c].cols(); i++) {
                 Paragraph p = new Paragraph(Integer.toString(prevRunningSum(c, i) + partialSum(c, i)));
                 Cell cell = new Cell().add(p);
-                setBorderForNewContest(separation_border, c, i, cell);
+                setBorderForNewContest(cs, separation_border, c, i, cell);
                 table.addCell(cell);
             }
         }
@@ -258,7 +247,7 @@ public class Page {
             for (int i = 0; i < cs[c].cols(); i++) {
                 Paragraph p = new Paragraph(Integer.toString(prevRunningSum(c, i)));
                 Cell cell = new Cell().add(p);
-                setBorderForNewContest(separation_border, c, i, cell);
+                setBorderForNewContest(cs, separation_border, c, i, cell);
                 table.addCell(cell);
             }
         }
@@ -278,30 +267,37 @@ public class Page {
                 Paragraph p = new Paragraph(Integer.toString(partialSum(contest, i)));
                 Cell c = new Cell().add(p);
                 c.setBorderTop(new SolidBorder(borderThickness));
-                setBorderForNewContest(separation_border, contest, i, c);
+                setBorderForNewContest(cs, separation_border, contest, i, c);
                 table.addCell(c);
             }
         }
     }
 
     public void addVotesTable(Document doc, PageSize ps, float fontSize) {
-        Table table = new Table(this.cols);
-        addTitlesToTable(table);
+        Table table = new Table(header.columnWidths()).setFixedLayout();
+        table.setWidth(header.tableWidth());
+        // the header rows overhang their cell by the width of their outer borders
+        Image titles_rows = new Image(header.titlesRows());
+        float pad = GroupHeader.BORDER_WIDTH;
+        titles_rows.setMargins(-pad, -pad, -pad, -pad);
+        Cell titles = new Cell(1, this.cols).add(titles_rows);
+        titles.setPadding(0);
+        titles.setBorder(Border.NO_BORDER);
+        table.addHeaderCell(titles);
         int possible_votes = addVotesToTable(table);
         table.setFontSize(fontSize);
         table.startNewRow();
         addSumsToTable(table, possible_votes);
         table.setVerticalAlignment(VerticalAlignment.MIDDLE);
-        table.setHorizontalAlignment(HorizontalAlignment.CENTER);
-        table.setAutoLayout();
-        table.setRelativePosition(0, 30, 0, 0);
+        table.setMarginLeft(header.tableLeft());
+        table.setRelativePosition(0, PageGeometry.TABLE_TOP_OFFSET, 0, 0);
         table.setTextAlignment(TextAlignment.CENTER);
         doc.add(table);
     }
 
     public void formatPDFPage(PageSize ps, Document doc) {
-        addPageNumbers(doc, 14, ps);
-        addTitle(doc, 14, ps);
-        addVotesTable(doc, ps, 6);
+        addPageNumbers(doc, PageGeometry.TITLE_FONT_SIZE, ps);
+        addTitle(doc, PageGeometry.TITLE_FONT_SIZE, ps);
+        addVotesTable(doc, ps, header.geometry().fontSize());
     }
 }
\ No newline at end of file
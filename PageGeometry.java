@@ -0,0 +1,107 @@
+import com.itextpdf.kernel.geom.PageSize;
+
+/*
+ * The layout of every page of a sheet: the page size (already rotated for
+ * landscape), how many ballots are listed on each page and the font size of
+ * the votes table.
+ */
+class PageGeometry {
+    public static final int DEFAULT_ROWS = 50;
+    public static final float DEFAULT_FONT_SIZE = 6;
+    public static final float TITLE_FONT_SIZE = 14; // title and page numbers
+    public static final float MIN_FONT_SIZE = 4; // smallest legible table font
+    // the votes table starts this far below the top of the page
+    public static final float TABLE_TOP_OFFSET = 30;
+
+    private final PageSize page_size;
+    private final int rows; // ballots per page
+    private final float font_size; // font size of the votes table
+
+    public PageGeometry(PageSize page_size, int rows, float font_size) {
+        if (rows < 1)
+            throw new IllegalArgumentException("a page must hold at least one ballot");
+        if (font_size < MIN_FONT_SIZE)
+            throw new IllegalArgumentException("font size must be at least " + MIN_FONT_SIZE);
+        this.page_size = page_size;
+        this.rows = rows;
+        this.font_size = font_size;
+    }
+
+    public static PageGeometry defaults() {
+        return new PageGeometry(PageSize.A4, DEFAULT_ROWS, DEFAULT_FONT_SIZE);
+    }
+
+    // return the PageSize called name, e.g. "A4" or "LETTER", or null if unknown
+    public static PageSize pageSize(String name) {
+        switch (name.toUpperCase()) {
+        case "A3":
+            return PageSize.A3;
+        case "A4":
+            return PageSize.A4;
+        case "A5":
+            return PageSize.A5;
+        case "LETTER":
+            return PageSize.LETTER;
+        case "LEGAL":
+            return PageSize.LEGAL;
+        case "TABLOID":
+            return PageSize.TABLOID;
+        case "LEDGER":
+            return PageSize.LEDGER;
+        default:
+            return null;
+        }
+    }
+
+    public PageSize pageSize() {
+        return page_size;
+    }
+
+    public int rows() {
+        return rows;
+    }
+
+    public float fontSize() {
+        return font_size;
+    }
+
+    public boolean isLandscape() {
+        return page_size.getWidth() > page_size.getHeight();
+    }
+
+    // the same page turned on its side
+    public PageGeometry rotate() {
+        return new PageGeometry(new PageSize(page_size.getHeight(), page_size.getWidth()), rows, font_size);
+    }
+
+    public PageGeometry withRows(int rows) {
+        return new PageGeometry(page_size, rows, font_size);
+    }
+
+    public PageGeometry withFontSize(float font_size) {
+        return new PageGeometry(page_size, rows, font_size);
+    }
+
+    // widest the votes table may be, in points
+    public float maxTableWidth() {
+        return page_size.getWidth() - page_size.getWidth() / 20;
+    }
+
+    /*
+     * Tallest the votes table may be, in points. It starts TABLE_TOP_OFFSET
+     * below the top of the page and may run down to the bottom, since it is
+     * kept clear of the page numbers from the side.
+     */
+    public float maxTableHeight() {
+        return page_size.getHeight() - TABLE_TOP_OFFSET;
+    }
+
+    /*
+     * Widest a group of contests may be, in the character widths of
+     * Contest.width(), when packing contests into files.
+     */
+    public int maxTableChars() {
+        int chars = (int) maxTableWidth() * 2 / 10;
+        return (int) (chars * DEFAULT_FONT_SIZE / font_size);
+    }
+}
@@ -0,0 +1,197 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/*
+ * Shows the Metrics of a run while it goes: a progress bar with an ETA on
+ * System.err, a JSON snapshot rewritten every interval, and/or the Metrics
+ * MBean registered with the platform MBean server.
+ *
+ * While the bar is shown, System.err is replaced by a stream that shares its
+ * line with the bar: other output, such as warnings and stack traces, first
+ * clears the bar, which is drawn again below once that output ends its line.
+ */
+class ProgressReporter {
+    private static final long INTERVAL_MS = 500;
+    private static final int BAR_WIDTH = 30;
+    static final String MBEAN_NAME = "ComparisonRLASums:type=Metrics";
+
+    private final Metrics metrics;
+    private final boolean console;
+    private final String json_file; // null for none
+    private final Thread thread;
+    private volatile boolean running;
+    // the console, guarded by itself
+    private final PrintStream err;
+    private int bar_length = 0; // length of the bar on the console, 0 if not shown
+    private boolean at_line_start = true; // false while other output has an unfinished line
+
+    private ProgressReporter(Metrics metrics, boolean console, String json_file) {
+        this.metrics = metrics;
+        this.console = console;
+        this.json_file = json_file;
+        this.running = true;
+        this.err = System.err;
+        this.thread = new Thread(this::run, "progress");
+        this.thread.setDaemon(true);
+    }
+
+    /*
+     * Start reporting as the options ask. Returns a reporter even when nothing
+     * was asked for, so that stop() can always be called.
+     */
+    public static ProgressReporter start(Options options) {
+        Metrics metrics = Metrics.global();
+        if (options.jmx()) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(MBEAN_NAME));
+            } catch (JMException e) {
+                System.err.println("Could not register " + MBEAN_NAME + ": " + e.getMessage());
+            }
+        }
+        ProgressReporter r = new ProgressReporter(metrics, options.progress(), options.metricsFile());
+        if (r.console)
+            System.setErr(new PrintStream(r.new SharedConsole(), true));
+        if (r.console || r.json_file != null)
+            r.thread.start();
+        return r;
+    }
+
+    // System.err while the bar is shown, see ProgressReporter
+    private class SharedConsole extends OutputStream {
+        @Override
+        public void write(int b) {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if (len == 0)
+                return;
+            synchronized (err) {
+                clearBar();
+                err.write(b, off, len);
+                at_line_start = b[off + len - 1] == '\n';
+                drawBar();
+            }
+        }
+
+        @Override
+        public void flush() {
+            err.flush();
+        }
+    }
+
+    // draw the bar over its line, unless other output is part way through one
+    private void drawBar() {
+        if (!at_line_start)
+            return;
+        String line = progressLine();
+        err.print("\r" + line);
+        err.flush();
+        bar_length = line.length();
+    }
+
+    private void clearBar() {
+        if (bar_length == 0)
+            return;
+        err.print("\r" + " ".repeat(bar_length) + "\r");
+        bar_length = 0;
+    }
+
+    private void run() {
+        while (running) {
+            report();
+            try {
+                Thread.sleep(INTERVAL_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void report() {
+        if (console) {
+            synchronized (err) {
+                drawBar();
+            }
+        }
+        if (json_file != null)
+            writeJSON();
+    }
+
+    private static String duration(long seconds) {
+        if (seconds < 0)
+            return "--";
+        if (seconds < 60)
+            return seconds + "s";
+        if (seconds < 3600)
+            return seconds / 60 + "m" + String.format("%02d", seconds % 60) + "s";
+        return seconds / 3600 + "h" + String.format("%02d", seconds / 60 % 60) + "m";
+    }
+
+    private String progressLine() {
+        long planned = metrics.getPagesPlanned();
+        long rendered = metrics.getPagesRendered();
+        double done = planned == 0 ? 0 : Math.min(1, (double) rendered / planned);
+        int filled = (int) (done * BAR_WIDTH);
+        StringBuilder bar = new StringBuilder("[");
+        for (int i = 0; i < BAR_WIDTH; i++) {
+            bar.append(i < filled ? '#' : '.');
+        }
+        bar.append("] ").append((int) (done * 100)).append("% ");
+        bar.append(rendered).append('/').append(planned).append(" pages, ");
+        bar.append(metrics.getBallotsParsed()).append(" ballots, ");
+        bar.append(metrics.getBytesWritten() / (1024 * 1024)).append(" MB, ");
+        bar.append("ETA ").append(duration(metrics.getEtaSeconds())).append(", ");
+        bar.append(metrics.getStage());
+        // pad over whatever was left of a longer previous line
+        while (bar.length() < 100)
+            bar.append(' ');
+        return bar.toString();
+    }
+
+    // write to a temporary file first so readers never see half a snapshot
+    private void writeJSON() {
+        try {
+            String tmp = json_file + ".tmp";
+            PrintWriter out = new PrintWriter(tmp, "UTF-8");
+            out.println(metrics.toJSON());
+            out.close();
+            Files.move(Paths.get(tmp), Paths.get(json_file), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            System.err.println("Could not write " + json_file + ": " + e.getMessage());
+        }
+    }
+
+    // stop reporting, after a last report of the final counts and of whether the run failed
+    public void stop(boolean failed) {
+        metrics.stage(failed ? "failed" : "done");
+        if (!thread.isAlive())
+            return;
+        running = false;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        report();
+        if (console) {
+            synchronized (err) {
+                if (bar_length > 0)
+                    err.println();
+                bar_length = 0;
+            }
+            System.setErr(err);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+/*
+ * Runs the reading of CVRs and the rendering of their sheets as concurrent
+ * tasks, one thread per task. On Java 21 and later these are virtual threads,
+ * so hundreds of small CVRs cost little more than the work they do; earlier
+ * JVMs fall back to one platform thread per processor.
+ *
+ * The scope is structured: tasks may start subtasks, join() returns only once
+ * every task has finished, and the first task to fail cancels all the others
+ * and is rethrown by join(). A semaphore caps how many PDF documents are open
+ * at once, however many tasks are running.
+ */
+class RenderScope {
+    interface Task {
+        void run() throws Exception;
+    }
+
+    private final ExecutorService executor;
+    private final Semaphore open_documents;
+    private final ConcurrentLinkedQueue<Future<?>> pending; // tasks join() has not waited for
+    private final ConcurrentLinkedQueue<Future<?>> all; // every task, for cancelling
+    private final AtomicReference<Exception> failure; // first task to fail
+
+    public RenderScope(int max_open_documents) {
+        this.executor = newExecutor();
+        this.open_documents = new Semaphore(max_open_documents);
+        this.pending = new ConcurrentLinkedQueue<Future<?>>();
+        this.all = new ConcurrentLinkedQueue<Future<?>>();
+        this.failure = new AtomicReference<Exception>();
+    }
+
+    private static ExecutorService newExecutor() {
+        try {
+            Method m = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) m.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        }
+    }
+
+    // true once a task has failed and the rest are being cancelled
+    public boolean failed() {
+        return failure.get() != null;
+    }
+
+    // run task concurrently
+    public void fork(Task task) {
+        submit(task, false);
+    }
+
+    // run task concurrently, once fewer than the maximum documents are open
+    public void forkDocument(Task task) {
+        submit(task, true);
+    }
+
+    private void submit(Task task, boolean opens_document) {
+        if (failed())
+            return;
+        Future<?> f;
+        try {
+            f = executor.submit(() -> {
+                if (opens_document)
+                    open_documents.acquire();
+                try {
+                    if (!failed())
+                        task.run();
+                } catch (Exception e) {
+                    fail(e);
+                    throw e;
+                } finally {
+                    if (opens_document)
+                        open_documents.release();
+                }
+                return null;
+            });
+        } catch (RejectedExecutionException e) {
+            return; // the scope is already shutting down after a failure
+        }
+        // queued before the task that forked it finishes, so join() sees it
+        pending.add(f);
+        all.add(f);
+        // a fail() that ran after the submit may have missed f in all, and
+        // shutdownNow() then drops it from the queue unrun; join() would wait
+        // on it forever
+        if (failed())
+            f.cancel(true);
+    }
+
+    private void fail(Exception e) {
+        if (!failure.compareAndSet(null, e))
+            return;
+        for (Future<?> f : all) {
+            f.cancel(true);
+        }
+        executor.shutdownNow();
+    }
+
+    /*
+     * Wait for every task, including those forked while waiting. Throws the
+     * first failure, after every other task has been cancelled or finished.
+     */
+    public void join() throws Exception {
+        try {
+            for (Future<?> f = pending.poll(); f != null; f = pending.poll()) {
+                try {
+                    f.get();
+                } catch (CancellationException | ExecutionException e) {
+                    // the failure itself was recorded by the task
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        if (failed())
+            throw failure.get();
+    }
+}
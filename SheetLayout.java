@@ -0,0 +1,205 @@
+import com.itextpdf.io.font.constants.StandardFonts;
+import com.itextpdf.kernel.font.PdfFont;
+import com.itextpdf.kernel.font.PdfFontFactory;
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfWriter;
+import com.itextpdf.layout.Document;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/*
+ * How the contests of a CVR are split into sheets (one PDF per group of
+ * contests) and the page geometry of every sheet, decided before any sheet is
+ * rendered.
+ *
+ * The contests are first packed by Contest.width(), and a group whose votes
+ * table, once measured, does not fit across the page beside the page numbers
+ * is split into as many sheets as it takes, so that no column is ever cut
+ * off. Without --auto-tune every sheet has the configured geometry, except
+ * that a sheet whose header leaves room for fewer ballots than --rows lists
+ * only as many as fit, with a warning, so that no page spills over. With it, the
+ * contests are packed and measured again for both orientations and every font
+ * size down to MIN_FONT_SIZE, each sheet listing as many ballots per page as
+ * fit, and the layout that needs the fewest pages in all is kept. The larger
+ * font and the configured orientation win ties, and the configured geometry
+ * is kept unless something needs fewer pages.
+ */
+class SheetLayout {
+    private static final float FONT_STEP = 0.5f; // font sizes tried by --auto-tune
+
+    private final VotingSheets sheets;
+    private final ArrayList<Contest[]> groups;
+    private final ArrayList<PageGeometry> geometries; // geometries.get(i) is that of groups.get(i)
+
+    private SheetLayout(VotingSheets sheets) {
+        this.sheets = sheets;
+        this.groups = new ArrayList<Contest[]>();
+        this.geometries = new ArrayList<PageGeometry>();
+    }
+
+    /*
+     * Lay out the sheets of s as the options ask. Returns null, after printing
+     * the reason on System.err, if the ballots do not fit on the page at all.
+     */
+    public static SheetLayout plan(VotingSheets s, Options options) throws IOException {
+        // only measured with, never written
+        PdfDocument scratch = new PdfDocument(new PdfWriter(OutputStream.nullOutputStream()));
+        Document doc = new Document(scratch);
+        try {
+            PdfFont font = PdfFontFactory.createFont(StandardFonts.HELVETICA);
+            doc.setFont(font);
+            Contest[] contests = s.makeContests();
+            if (!options.autoTune())
+                return configured(s, contests, options.geometry(), doc, font, true);
+            SheetLayout layout = tune(s, contests, options.geometry(), doc, font);
+            if (layout == null)
+                System.err.println(s.title() + ": at no orientation or font size does every sheet have room "
+                        + "for ballots below its header; use a larger --page-size");
+            return layout;
+        } finally {
+            scratch.addNewPage(); // a document without pages cannot be closed
+            doc.close();
+        }
+    }
+
+    /*
+     * The sheets at the given geometry, with fewer ballots per page on those
+     * where that many do not fit. Returns null if a contest does not fit on
+     * the page at all, reporting on System.err what does not fit if report.
+     */
+    private static SheetLayout configured(VotingSheets s, Contest[] contests, PageGeometry geometry, Document doc,
+            PdfFont font, boolean report) {
+        SheetLayout layout = new SheetLayout(s);
+        for (Contest[] group : VotingSheets.groupContests(contests, geometry.maxTableChars())) {
+            if (!layout.addSplit(group, geometry, false, doc, font, report))
+                return null;
+        }
+        return layout;
+    }
+
+    /*
+     * The sheets at the given orientation and font size, each listing as many
+     * ballots per page as fit (but no more than the CVR has), or null if a
+     * contest does not fit on the page.
+     */
+    private static SheetLayout densest(VotingSheets s, Contest[] contests, PageGeometry geometry, Document doc,
+            PdfFont font) {
+        SheetLayout layout = new SheetLayout(s);
+        for (Contest[] group : VotingSheets.groupContests(contests, geometry.maxTableChars())) {
+            if (!layout.addSplit(group, geometry, true, doc, font, false))
+                return null;
+        }
+        return layout;
+    }
+
+    /*
+     * Add the contests of group as the fewest sheets, each holding as many of
+     * them as fit across the page. Returns false if a single contest does not
+     * fit, reporting on System.err why if report.
+     */
+    private boolean addSplit(Contest[] group, PageGeometry geometry, boolean densest, Document doc, PdfFont font,
+            boolean report) {
+        for (int start = 0, end; start < group.length; start = end) {
+            PageGeometry g = null;
+            for (end = group.length; end > start; end--) {
+                g = sheetGeometry(Arrays.copyOfRange(group, start, end), geometry, densest, doc, font);
+                if (g != null)
+                    break;
+            }
+            String file = fileName(size());
+            if (g == null) {
+                if (report)
+                    System.err.println(file + ": " + group[start].contest_name().replace('\n', ' ')
+                            + " does not fit on the page with room for ballots below it;"
+                            + " try --landscape, a smaller --font-size, a larger --page-size or --auto-tune");
+                return false;
+            }
+            if (report && g.rows() < Math.min(geometry.rows(), sheets.ballots()))
+                System.err.println(file + ": only " + g.rows() + " ballots fit on a page, not " + geometry.rows()
+                        + "; listing " + g.rows() + " per page");
+            add(Arrays.copyOfRange(group, start, end), g);
+        }
+        return true;
+    }
+
+    /*
+     * The geometry of a sheet of the contests in group: the given one, with as
+     * many ballots per page as fit if densest, or else no more than fit. Null
+     * if no ballot fits below the header or the votes table is too wide.
+     */
+    private PageGeometry sheetGeometry(Contest[] group, PageGeometry geometry, boolean densest, Document doc,
+            PdfFont font) {
+        PageGeometry g = geometry;
+        if (densest) {
+            int max_rows = Math.max(1, sheets.ballots());
+            // measure with the most rows a page can have so the counts always fit
+            int rows = Math.min(max_rows, GroupHeader.fitRows(group, sheets, doc, font, geometry.withRows(max_rows)));
+            g = rows == 0 ? null : geometry.withRows(rows);
+        } else {
+            int rows = GroupHeader.fitRows(group, sheets, doc, font, geometry);
+            if (rows == 0)
+                g = null;
+            else if (rows < Math.min(geometry.rows(), sheets.ballots()))
+                g = geometry.withRows(rows);
+        }
+        return g != null && GroupHeader.fitsAcross(group, sheets, font, g) ? g : null;
+    }
+
+    private static SheetLayout tune(VotingSheets s, Contest[] contests, PageGeometry base, Document doc,
+            PdfFont font) {
+        SheetLayout best = configured(s, contests, base, doc, font, false);
+        for (PageGeometry page : new PageGeometry[] { base, base.rotate() }) {
+            for (float size = base.fontSize(); size >= PageGeometry.MIN_FONT_SIZE; size -= FONT_STEP) {
+                SheetLayout layout = densest(s, contests, page.withFontSize(size), doc, font);
+                if (layout != null && (best == null || layout.pages() < best.pages()))
+                    best = layout;
+            }
+        }
+        return best;
+    }
+
+    private void add(Contest[] group, PageGeometry geometry) {
+        groups.add(group);
+        geometries.add(geometry);
+    }
+
+    // number of sheets
+    public int size() {
+        return groups.size();
+    }
+
+    public Contest[] group(int i) {
+        return groups.get(i);
+    }
+
+    public PageGeometry geometry(int i) {
+        return geometries.get(i);
+    }
+
+    // file the ith sheet is written to; sheets are numbered by their first contest
+    public String fileName(int i) {
+        int first = 1;
+        for (int g = 0; g < i; g++) {
+            first += groups.get(g).length;
+        }
+        return first + ".pdf";
+    }
+
+    // pages of the ith sheet
+    public int pages(int i) {
+        int rows = geometries.get(i).rows();
+        return (sheets.ballots() + rows - 1) / rows; // Round up
+    }
+
+    // pages of every sheet together
+    public int pages() {
+        int pages = 0;
+        for (int i = 0; i < size(); i++) {
+            pages += pages(i);
+        }
+        return pages;
+    }
+}
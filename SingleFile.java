@@ -1,8 +1,12 @@
+import com.itextpdf.io.font.constants.StandardFonts;
+import com.itextpdf.kernel.font.PdfFont;
+import com.itextpdf.kernel.font.PdfFontFactory;
 import com.itextpdf.kernel.pdf.PdfDocument;
 import com.itextpdf.layout.Document;
 import com.itextpdf.layout.element.AreaBreak;
 
-import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
 
 class SingleFile {
@@ -17,10 +21,15 @@ class SingleFile {
         }
     }
 
-    public static void writePDF(Contest[] contests, VotingSheets vs, PdfDocument pdfdoc) throws FileNotFoundException {
-        Document doc = new Document(pdfdoc);
-        int BALLOTS_PER_PAGE = vs.BALLOTS_PER_PAGE();
+    public static void writePDF(Contest[] contests, VotingSheets vs, PdfDocument pdfdoc, PageGeometry geometry)
+            throws IOException {
+        Document doc = new Document(pdfdoc, geometry.pageSize());
+        PdfFont font = PdfFontFactory.createFont(StandardFonts.HELVETICA);
+        doc.setFont(font);
+        GroupHeader header = new GroupHeader(contests, vs, doc, font, geometry);
+        int BALLOTS_PER_PAGE = geometry.rows();
         int num_pages = (vs.ballots() + BALLOTS_PER_PAGE - 1) / BALLOTS_PER_PAGE; // Round up
+        Metrics metrics = Metrics.global();
         doc.setMargins(0, 0, 0, 0);
         ArrayList<ArrayList<Integer>> prev_running_sums = new ArrayList<ArrayList<Integer>>();
         for (int j = 0; j < contests.length; j++) {
@@ -30,16 +39,19 @@ class SingleFile {
             }
         }
         for (int i = 1, votes_start_i = 0; i <= num_pages; i++, votes_start_i += BALLOTS_PER_PAGE) {
+            if (Thread.currentThread().isInterrupted())
+                throw new InterruptedIOException("cancelled");
             pdfdoc.addNewPage();
             ArrayList<ArrayList<Integer>> partial_sums = new ArrayList<ArrayList<Integer>>(contests.length);
             for (int j = 0; j < contests.length; j++) {
-                partial_sums.add(contests[j].buildPartialSums(votes_start_i));
+                partial_sums.add(contests[j].buildPartialSums(votes_start_i, BALLOTS_PER_PAGE));
             }
 
-            Page p = new Page(contests, i, votes_start_i, partial_sums, prev_running_sums, num_pages);
+            Page p = new Page(contests, i, votes_start_i, partial_sums, prev_running_sums, num_pages, header);
 
-            p.formatPDFPage(pdfdoc.getDefaultPageSize(), doc);
+            p.formatPDFPage(geometry.pageSize(), doc);
             updatePrevRunningSums(prev_running_sums, partial_sums);
+            metrics.pageRendered(contests[0]);
             if (i != num_pages)
                 doc.add(new AreaBreak());
         }
@@ -8,17 +8,16 @@ import java.util.Comparator;
 import java.util.ArrayList;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
 
-import com.itextpdf.kernel.pdf.PdfWriter;
 import com.itextpdf.kernel.pdf.PdfDocument;
-import com.itextpdf.kernel.geom.PageSize;
 
 enum VoteCount {
     UNDER_VOTE, LEGAL_VOTE, OVER_VOTE;
 }
 
 public class VotingSheets {
-    private final int BALLOTS_PER_PAGE = 50;
     private final String title; // Title of CVR
     private final String[] column_titles; // titles of the columns
     // the first row is the candidates and second is their parties
@@ -57,21 +56,26 @@ public class VotingSheets {
 
     private class ImprintedIDComparator implements Comparator<String[]> {
         public int compare(String[] first, String[] second) {
-            String[] f = first[imprintedID_i].split("-");
-            String[] s = second[imprintedID_i].split("-");
-            for (int i = 0; i < f.length && i < s.length; i++) {
-                if (!s[i].equals(f[i])) {
-                    try {
-                        int i_f = Integer.parseInt(f[i]);
-                        int i_s = Integer.parseInt(s[i]);
-                        return i_f - i_s;
-                    } catch (NumberFormatException e) {
-                        return s[i].compareTo(f[i]);
-                    }
+            return compareImprintedIDs(first[imprintedID_i], second[imprintedID_i]);
+        }
+    }
+
+    // the order ballots are listed in on the sheets
+    static int compareImprintedIDs(String first, String second) {
+        String[] f = first.split("-");
+        String[] s = second.split("-");
+        for (int i = 0; i < f.length && i < s.length; i++) {
+            if (!s[i].equals(f[i])) {
+                try {
+                    int i_f = Integer.parseInt(f[i]);
+                    int i_s = Integer.parseInt(s[i]);
+                    return i_f - i_s;
+                } catch (NumberFormatException e) {
+                    return s[i].compareTo(f[i]);
                 }
             }
-            return f.length - s.length;
         }
+        return f.length - s.length;
     }
 
     // get the ith candidate of the CVR
@@ -88,10 +92,6 @@ public class VotingSheets {
         return parties[i];
     }
 
-    public int BALLOTS_PER_PAGE() {
-        return BALLOTS_PER_PAGE;
-    }
-
     public String title() {
         return title;
     }
@@ -233,40 +233,10 @@ public class VotingSheets {
         return vote_counts;
     }
 
-    private static String splitToKLines(String s, int k, int len) {
-        s = s.replaceAll(" ", "\n").replaceAll("\n/\n", " /\n").replaceAll("\n-\n", " -\n");
-        for (int i = 0; i <= 9; i++) {
-            String ofInt = Integer.toString(i);
-            s = s.replaceAll("\n" + ofInt + "\n", " " + ofInt + "\n").replaceAll("\n" + ofInt + "$", " " + ofInt);
-        }
-        String[] words = s.split("\n");
-        if (words.length <= k) {
-            return s;
-        }
-        StringBuilder fullText = new StringBuilder();
-        StringBuilder line = new StringBuilder();
-        for (int i = 0; i < words.length; i++) {
-            line.append(words[i]).append(" ");
-            if (i + 1 == words.length || line.length() + words[i + 1].length() > len) {
-                line.deleteCharAt(line.length() - 1);
-                fullText.append(line.toString()).append("\n");
-                line = new StringBuilder();
-            }
-        }
-        return fullText.toString();
-    }
-
     private String getContestName(String contest_name, int col, int cols) {
         int width = 2 * cols;
         for (int i = 0; i < cols; i++) {
-            int cur = 0;
-            for (String word : candidates[col + i].split(" ")) {
-                cur = Math.max(cur, word.length());
-            }
-            for (String word : parties[col + i].split(" ")) {
-                cur = Math.max(cur, word.length());
-            }
-            width += cur;
+            width += Math.max(Labels.longestWord(candidates[col + i]), Labels.longestWord(parties[col + i]));
         }
         int i;
         for (i = 1; contest_name.length() / i > width; i++)
@@ -278,10 +248,10 @@ public class VotingSheets {
                 ;
             i = j;
         }
-        return splitToKLines(contest_name, i, width);
+        return Labels.contest(contest_name, i, width);
     }
 
-    private Contest[] makeContests() {
+    Contest[] makeContests() {
         int contests = 0;
         for (int i = 0; i < is_new_contest.length; i++) {
             if (is_new_contest[i])
@@ -302,7 +272,7 @@ public class VotingSheets {
         return contest_sheets;
     }
 
-    private static String[] prepareColumnTitles(String[] contests, String[] column_titles_line) {
+    static String[] prepareColumnTitles(String[] contests, String[] column_titles_line) {
         String[] column_titles = new String[Math.max(contests.length, column_titles_line.length)];
 
         for (int i = 0; i < column_titles_line.length; i++) {
@@ -326,9 +296,8 @@ public class VotingSheets {
             start = end + 1;
             end = s.indexOf(",", start);
         }
-        String end_of_s = s.substring(start);
-        if (end_of_s != null && end_of_s != "")
-            out.add(end_of_s);
+        // keep a trailing empty field so every row has one entry per column
+        out.add(s.substring(start));
         return out.toArray(new String[out.size()]);
     }
 
@@ -336,23 +305,33 @@ public class VotingSheets {
         return s.replaceAll("/", "-");
     }
 
-    public static void main(String[] args) {
-        if (args.length != 1) {
-            System.err.println("USAGE: java VotingSheets CVR_name");
-            return;
-        }
-        if (!args[0].contains(".csv")) {
+    /*
+     * Read and validate the CVR at file_name. Returns null, after reporting the
+     * reason on System.err, if the CVR cannot be used.
+     */
+    static VotingSheets readCVR(String file_name) {
+        return readCVR(file_name, false);
+    }
+
+    /*
+     * As readCVR(file_name), but a CVR with repeated ImprintedIds is read
+     * anyway, for tools such as ImprintedIDIndex that report them.
+     */
+    static VotingSheets readCVR(String file_name, boolean allow_duplicate_ids) {
+        Metrics metrics = Metrics.global();
+        metrics.stage("reading " + file_name);
+        if (!file_name.contains(".csv")) {
             System.err.println("The CVR must be of type CSV");
-            return;
+            return null;
         }
         File in;
         Scanner scanner;
         try {
-            in = new File(args[0]);
+            in = new File(file_name);
             scanner = new Scanner(in);
         } catch (Exception e) {
-            System.err.println("No file found at " + args[0]);
-            return;
+            System.err.println("No file found at " + file_name);
+            return null;
         }
         String title_line = scanner.nextLine();
         String title = title_line.split(",")[0];
@@ -360,48 +339,176 @@ public class VotingSheets {
         String[] contest_names = contests_line.split(",");
         String[] candidates = scanner.nextLine().split(",");
         String[] parties = scanner.nextLine().split(",");
-        String[] column_titles = prepareColumnTitles(contest_names, parties);
         ArrayList<String> ballot_lines = new ArrayList<String>();
         while (scanner.hasNext()) {
             ballot_lines.add(scanner.nextLine());
+            metrics.ballotsParsed(1);
+        }
+        scanner.close();
+        metrics.stage("validating " + file_name);
+        ArrayList<String> problems = CVRValidator.validate(title_line, contest_names, candidates, parties,
+                ballot_lines, allow_duplicate_ids);
+        if (!problems.isEmpty()) {
+            for (String problem : problems) {
+                System.err.println(file_name + ": " + problem);
+            }
+            System.err.println(problems.size() + " problem(s) found in " + file_name);
+            return null;
         }
+        String[] column_titles = prepareColumnTitles(contest_names, parties);
         String[][] vote_matrix = new String[ballot_lines.size()][column_titles.length];
         for (int i = 0; i < ballot_lines.size(); i++) {
             vote_matrix[i] = splitAtComma(ballot_lines.get(i)); // .split(",");
         }
-        VotingSheets s = new VotingSheets(title, column_titles, candidates, parties, vote_matrix);
-        File f = new File(title);
-        f.mkdir();
-        Contest[] contests = s.makeContests();
-        for (int c = 0, files = 1; c < contests.length; c++) {
-            try {
-                String file_name = removeSlashes(s.title()) + "/" + Integer.toString(files++); // +
-                // removeSlashes(contest_name);
-                PdfWriter writer = new PdfWriter(file_name + ".pdf");
-                PdfDocument pdfdoc = new PdfDocument(writer);
-                PageSize ps = pdfdoc.getDefaultPageSize();
-                int MAX_TABLE_WIDTH = (int) (ps.getWidth() - ps.getWidth() / 20) * 2 / 10;
-                int start = c;
-                int width = 2;
-                while (width < MAX_TABLE_WIDTH && c < contests.length) {
-                    if (width + contests[c].width() > MAX_TABLE_WIDTH) {
-                        break;
-                    }
-                    width += contests[c].width() + 2;
-                    c++;
-                    files++;
+        return new VotingSheets(title, column_titles, candidates, parties, vote_matrix);
+    }
+
+    /*
+     * Split the contests into groups that fit side by side on one sheet. Every
+     * group holds at least one contest, however wide.
+     */
+    static ArrayList<Contest[]> groupContests(Contest[] contests, int MAX_TABLE_WIDTH) {
+        ArrayList<Contest[]> groups = new ArrayList<Contest[]>();
+        for (int c = 0; c < contests.length;) {
+            int start = c;
+            int width = 2 + contests[c].width() + 2;
+            c++;
+            while (width < MAX_TABLE_WIDTH && c < contests.length) {
+                if (width + contests[c].width() > MAX_TABLE_WIDTH) {
+                    break;
                 }
-                SingleFile.writePDF(Arrays.copyOfRange(contests, start, c--), s, pdfdoc);
-                files--;
-                writer.close();
-                pdfdoc.close();
+                width += contests[c].width() + 2;
+                c++;
+            }
+            groups.add(Arrays.copyOfRange(contests, start, c));
+        }
+        return groups;
+    }
+
+    /*
+     * Directory the sheets of a CVR are written to: named after its title, and
+     * when several CVRs are rendered together, also after the CVR file so that
+     * CVRs of the same election do not overwrite each other.
+     */
+    private static String outputDirectory(VotingSheets s, String cvr, boolean several) {
+        String dir = removeSlashes(s.title());
+        if (several)
+            dir += "/" + new File(cvr).getName().replaceAll("\\.csv$", "");
+        new File(dir).mkdirs();
+        return dir;
+    }
+
+    /*
+     * Write the sheet of a contest group to file_name. The document and its
+     * file are closed however rendering ends, and a sheet that failed is
+     * deleted so that no truncated PDF is left behind.
+     */
+    private static void renderGroup(VotingSheets s, Contest[] group, PageGeometry geometry, String file_name,
+            Options options) throws IOException {
+        try (OutputStream out = options.openOutput(file_name);
+                PdfDocument pdfdoc = options.openDocument(out, file_name)) {
+            SingleFile.writePDF(group, s, pdfdoc, geometry);
+        } catch (IOException | RuntimeException e) {
+            new File(file_name).delete();
+            throw e;
+        }
+    }
+
+    // tell the metrics how many pages each sheet will take, before any is rendered
+    private static void planPages(SheetLayout layout, String dir) {
+        for (int i = 0; i < layout.size(); i++) {
+            Metrics.global().plan(layout.group(i)[0], dir + "/" + layout.fileName(i), layout.pages(i));
+        }
+    }
+
+    // render the sheets of cvr; returns false if any could not be
+    private static boolean render(String cvr, Options options) {
+        VotingSheets s = readCVR(cvr);
+        if (s == null)
+            return false;
+        SheetLayout layout;
+        try {
+            layout = SheetLayout.plan(s, options);
+        } catch (IOException e) {
+            System.err.println("Could not lay out the sheets of " + cvr + ": " + e.getMessage());
+            return false;
+        }
+        if (layout == null)
+            return false;
+        boolean ok = true;
+        String dir = outputDirectory(s, cvr, options.cvrs().size() > 1);
+        planPages(layout, dir);
+        Metrics.global().stage("rendering " + cvr);
+        for (int i = 0; i < layout.size(); i++) {
+            Contest[] group = layout.group(i);
+            try {
+                renderGroup(s, group, layout.geometry(i), dir + "/" + layout.fileName(i), options);
             } catch (Exception e) {
-                System.err.println(contests[c].title() + ": ");
+                System.err.println(group[0].title() + ": ");
                 e.printStackTrace();
                 System.err.println();
+                ok = false;
             }
         }
+        return ok;
+    }
 
-        scanner.close();
+    /*
+     * Read every CVR and render every sheet concurrently. The first failure
+     * cancels everything still running, and renderGroup deletes the sheets it
+     * was writing. Returns false if the run stopped on a failure.
+     */
+    private static boolean renderConcurrently(Options options) {
+        RenderScope scope = new RenderScope(options.maxOpenDocuments());
+        boolean several = options.cvrs().size() > 1;
+        for (String cvr : options.cvrs()) {
+            scope.fork(() -> {
+                VotingSheets s = readCVR(cvr);
+                if (s == null)
+                    throw new IllegalArgumentException(cvr + " is not a valid CVR");
+                SheetLayout layout = SheetLayout.plan(s, options);
+                if (layout == null)
+                    throw new IllegalArgumentException(cvr + " does not fit on the page");
+                String dir = outputDirectory(s, cvr, several);
+                planPages(layout, dir);
+                Metrics.global().stage("rendering");
+                for (int i = 0; i < layout.size(); i++) {
+                    Contest[] group = layout.group(i);
+                    PageGeometry geometry = layout.geometry(i);
+                    String file_name = dir + "/" + layout.fileName(i);
+                    scope.forkDocument(() -> {
+                        try {
+                            renderGroup(s, group, geometry, file_name, options);
+                        } catch (Exception e) {
+                            throw new IOException(file_name + " (" + group[0].title() + ")", e);
+                        }
+                    });
+                }
+            });
+        }
+        try {
+            scope.join();
+        } catch (Exception e) {
+            System.err.println("Stopped: ");
+            e.printStackTrace();
+            return false;
+        }
+        return true;
+    }
+
+    public static void main(String[] args) {
+        Options options = Options.parse(args);
+        if (options == null)
+            return;
+        ProgressReporter reporter = ProgressReporter.start(options);
+        boolean ok = true;
+        if (options.concurrent()) {
+            ok = renderConcurrently(options);
+        } else {
+            for (String cvr : options.cvrs()) {
+                ok &= render(cvr, options);
+            }
+        }
+        reporter.stop(!ok);
     }
-}
\ No newline at end of file
+}